@@ -0,0 +1,59 @@
+package com.mongodb;
+
+import java.net.UnknownHostException;
+
+/**
+ * A DB with no server behind it; every collection is a StubDBCollection, and
+ * every update is reported as having matched a document.
+ *
+ * @author Sean Schulte
+ */
+public class StubDB extends DB {
+
+    public StubDB(String name) {
+        super(_mongo(), name);
+    }
+
+    /**
+     * DB needs a Mongo for its options; this one is never connected, since
+     * nothing goes through it.
+     */
+    private static Mongo _mongo() {
+        try {
+            return new Mongo(new ServerAddress("127.0.0.1", 27017));
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void requestStart() {
+    }
+
+    @Override
+    public void requestDone() {
+    }
+
+    @Override
+    public void requestEnsureConnection() {
+    }
+
+    @Override
+    protected DBCollection doGetCollection(String name) {
+        return new StubDBCollection(this, name);
+    }
+
+    @Override
+    public CommandResult getLastError() {
+        CommandResult result = new CommandResult();
+        result.put("ok", 1.0);
+        result.put("n", 1);
+        result.put("updatedExisting", Boolean.TRUE);
+        return result;
+    }
+
+    @Override
+    public void cleanCursors(boolean force) {
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.mongodb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+
+/**
+ * An in-memory DBCollection for benchmarks. Every find returns the same
+ * fixture documents, whatever the query, and writes are accepted and thrown
+ * away, so what's measured is the cost of everything around the server.
+ *
+ * This lives in com.mongodb because the find hook is package-private.
+ *
+ * @author Sean Schulte
+ */
+public class StubDBCollection extends DBCollection {
+
+    private volatile List<DBObject> _documents = Collections.emptyList();
+
+    public StubDBCollection(DB db, String name) {
+        super(db, name);
+    }
+
+    /**
+     * @param documents - what every find will return
+     */
+    public void setDocuments(List<DBObject> documents) {
+        _documents = new ArrayList<DBObject>(documents);
+    }
+
+    @Override
+    Iterator<DBObject> __find(DBObject ref, DBObject fields, int numToSkip, int batchSize, int limit, int options) {
+        List<DBObject> documents = _documents;
+        if (limit > 0 && limit < documents.size()) {
+            documents = documents.subList(0, limit);
+        }
+        return documents.iterator();
+    }
+
+    @Override
+    public WriteResult insert(DBObject[] objects, WriteConcern concern) {
+        for (DBObject object : objects) {
+            if (object.get("_id") == null) {
+                object.put("_id", ObjectId.get());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public WriteResult update(DBObject query, DBObject object, boolean upsert, boolean multi, WriteConcern concern) {
+        return null;
+    }
+
+    @Override
+    public WriteResult remove(DBObject query, WriteConcern concern) {
+        return null;
+    }
+
+    @Override
+    protected void doapply(DBObject object) {
+    }
+
+    @Override
+    public void createIndex(DBObject keys, DBObject options) {
+    }
+
+}
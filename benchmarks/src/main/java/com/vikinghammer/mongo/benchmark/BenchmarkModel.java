@@ -0,0 +1,71 @@
+package com.vikinghammer.mongo.benchmark;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vikinghammer.mongo.model.MongoModel;
+
+/**
+ * A typical model: a few named fields, plus any number of extra attributes
+ * (which is what makes a document "wide").
+ *
+ * @author Sean Schulte
+ */
+public class BenchmarkModel extends MongoModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private String _name;
+    private String _email;
+    private Integer _age;
+    private Date _lastSeen;
+    private List<String> _tags;
+    private Map<String, Object> _attributes = new LinkedHashMap<String, Object>();
+
+    public String getName() {
+        return _name;
+    }
+
+    public void setName(String name) {
+        _name = name;
+    }
+
+    public String getEmail() {
+        return _email;
+    }
+
+    public void setEmail(String email) {
+        _email = email;
+    }
+
+    public Integer getAge() {
+        return _age;
+    }
+
+    public void setAge(Integer age) {
+        _age = age;
+    }
+
+    public Date getLastSeen() {
+        return _lastSeen;
+    }
+
+    public void setLastSeen(Date lastSeen) {
+        _lastSeen = lastSeen;
+    }
+
+    public List<String> getTags() {
+        return _tags;
+    }
+
+    public void setTags(List<String> tags) {
+        _tags = tags;
+    }
+
+    public Map<String, Object> getAttributes() {
+        return _attributes;
+    }
+
+}
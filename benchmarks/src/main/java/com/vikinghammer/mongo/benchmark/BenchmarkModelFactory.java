@@ -0,0 +1,47 @@
+package com.vikinghammer.mongo.benchmark;
+
+import java.util.Date;
+import java.util.List;
+
+import com.mongodb.DBObject;
+
+import com.vikinghammer.mongo.factory.ModelFactory;
+
+/**
+ * Maps BenchmarkModel the way an application's factory would: each named
+ * field by hand, and the rest of the document as attributes.
+ *
+ * @author Sean Schulte
+ */
+public class BenchmarkModelFactory extends ModelFactory<BenchmarkModel> {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected BenchmarkModel doCreateModel(final DBObject doc) {
+        BenchmarkModel model = new BenchmarkModel();
+        model.setName((String)doc.get("name"));
+        model.setEmail((String)doc.get("email"));
+        model.setAge((Integer)doc.get("age"));
+        model.setLastSeen((Date)doc.get("lastSeen"));
+        model.setTags((List<String>)doc.get("tags"));
+        for (String key : doc.keySet()) {
+            if (key.startsWith("attr")) {
+                model.getAttributes().put(key, doc.get(key));
+            }
+        }
+        return model;
+    }
+
+    @Override
+    protected void doFillDBObject(DBObject doc, final BenchmarkModel model) {
+        doc.put("name", model.getName());
+        doc.put("email", model.getEmail());
+        doc.put("age", model.getAge());
+        doc.put("lastSeen", model.getLastSeen());
+        doc.put("tags", model.getTags());
+        for (String key : model.getAttributes().keySet()) {
+            doc.put(key, model.getAttributes().get(key));
+        }
+    }
+
+}
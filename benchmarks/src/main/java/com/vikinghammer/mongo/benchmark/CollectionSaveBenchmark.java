@@ -0,0 +1,83 @@
+package com.vikinghammer.mongo.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import com.vikinghammer.mongo.collection.MongoCollection;
+
+/**
+ * MongoCollection.save, both the versioned update of an existing document
+ * and the insert of a new one, and the full path from a model through
+ * getDBObject.
+ *
+ * @author Sean Schulte
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectionSaveBenchmark {
+
+    @Param({"SMALL", "WIDE"})
+    public Fixtures.Shape shape;
+
+    private MongoCollection _collection;
+    private BenchmarkModelFactory _factory;
+    private DBObject _existing;
+    private DBObject _new;
+    private BenchmarkModel _model;
+
+    @Setup
+    public void setUp() {
+        _collection = Fixtures.collection(Collections.<DBObject>emptyList());
+        _factory = new BenchmarkModelFactory();
+        _existing = Fixtures.document(shape, 1);
+        _new = Fixtures.document(shape, 2);
+        _new.removeField("_id");
+        _new.removeField("version");
+        _model = _factory.build(_existing);
+    }
+
+    @Benchmark
+    public DBObject update() {
+        // the version would eventually overflow, so keep it small
+        _existing.put("version", 1);
+        _collection.save(_existing);
+        return _existing;
+    }
+
+    @Benchmark
+    public DBObject insert() {
+        // a shallow copy, since save() fills in the _id and version
+        DBObject doc = new BasicDBObject(_new.toMap());
+        _collection.save(doc);
+        return doc;
+    }
+
+    @Benchmark
+    public DBObject storeModel() {
+        _model.setVersion(1);
+        DBObject doc = _factory.getDBObject(_model);
+        _collection.save(doc);
+        _factory.mergeIdAndVersionIntoModel(_model, doc);
+        return doc;
+    }
+
+}
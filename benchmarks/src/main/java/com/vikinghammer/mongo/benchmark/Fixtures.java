@@ -0,0 +1,109 @@
+package com.vikinghammer.mongo.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.StubDB;
+import com.mongodb.StubDBCollection;
+
+import com.vikinghammer.mongo.collection.MongoCollection;
+
+/**
+ * The documents and collections the benchmarks run against.
+ *
+ * @author Sean Schulte
+ */
+public class Fixtures {
+
+    /**
+     * The document sizes each benchmark is run with.
+     */
+    public enum Shape {
+
+        /** a handful of scalar fields, like a typical user record */
+        SMALL(0),
+        /** about a hundred fields, with nested documents and arrays */
+        WIDE(96);
+
+        private final int _attributes;
+
+        private Shape(int attributes) {
+            _attributes = attributes;
+        }
+
+        public int getAttributes() {
+            return _attributes;
+        }
+    }
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param shape - how wide the document should be
+     * @param seed - makes each document a little different
+     * @return a document, as it would come back from the database
+     */
+    public static DBObject document(Shape shape, int seed) {
+        DBObject doc = new BasicDBObject();
+        doc.put("_id", new ObjectId());
+        doc.put("version", seed % 10);
+        doc.put("name", "User " + seed);
+        doc.put("email", String.format("user%d@example.com", seed));
+        doc.put("age", 20 + (seed % 50));
+        doc.put("lastSeen", new Date(1300000000000L + seed));
+        doc.put("tags", Arrays.asList("alpha", "beta", "gamma"));
+        for (int i = 0; i < shape.getAttributes(); i++) {
+            String key = String.format("attr%02d", i);
+            switch (i % 4) {
+                case 0:
+                    doc.put(key, "value " + i + " for " + seed);
+                    break;
+                case 1:
+                    doc.put(key, (long)i * seed);
+                    break;
+                case 2:
+                    doc.put(key, new BasicDBObject("x", i).append("y", seed).append("label", "nested " + i));
+                    break;
+                default:
+                    doc.put(key, Arrays.asList(i, i + 1, i + 2, i + 3));
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * @param shape - how wide each document should be
+     * @param count - how many documents
+     * @return that many documents
+     */
+    public static List<DBObject> documents(Shape shape, int count) {
+        List<DBObject> documents = new ArrayList<DBObject>(count);
+        for (int i = 0; i < count; i++) {
+            documents.add(document(shape, i));
+        }
+        return documents;
+    }
+
+    /**
+     * @param documents - what every find on the collection should return
+     * @return an initialized MongoCollection backed by a StubDBCollection
+     */
+    public static MongoCollection collection(List<DBObject> documents) {
+        StubDBCollection stub = (StubDBCollection)new StubDB("benchmark").getCollection("benchmark");
+        stub.setDocuments(documents);
+
+        MongoCollection collection = new MongoCollection();
+        collection.setDatabaseConnector(new StubDatabaseConnector(stub));
+        collection.setCollectionName("benchmark");
+        collection.init();
+        return collection;
+    }
+
+}
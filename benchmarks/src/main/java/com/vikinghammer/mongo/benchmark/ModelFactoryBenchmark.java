@@ -0,0 +1,56 @@
+package com.vikinghammer.mongo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.DBObject;
+
+/**
+ * Mapping a document to a model (build) and back (getDBObject).
+ *
+ * @author Sean Schulte
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelFactoryBenchmark {
+
+    @Param({"SMALL", "WIDE"})
+    public Fixtures.Shape shape;
+
+    private BenchmarkModelFactory _factory;
+    private DBObject _doc;
+    private BenchmarkModel _model;
+
+    @Setup
+    public void setUp() {
+        _factory = new BenchmarkModelFactory();
+        _doc = Fixtures.document(shape, 1);
+        _model = _factory.build(_doc);
+    }
+
+    @Benchmark
+    public BenchmarkModel build() {
+        return _factory.build(_doc);
+    }
+
+    @Benchmark
+    public DBObject getDBObject() {
+        return _factory.getDBObject(_model);
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.vikinghammer.mongo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.DBObject;
+
+import com.vikinghammer.mongo.model.Query;
+
+/**
+ * Building queries with Query's eq/lt/gt/add.
+ *
+ * @author Sean Schulte
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    /**
+     * A single equality, the most common query.
+     */
+    @Benchmark
+    public DBObject eq() {
+        return new Query().eq("email", "user1@example.com").getQuery();
+    }
+
+    /**
+     * A range on one field, plus an equality and a sort.
+     */
+    @Benchmark
+    public DBObject range() {
+        Query query = new Query()
+            .eq("name", "User 1")
+            .gt("age", 21)
+            .lt("age", 65)
+            .sort("lastSeen", -1);
+        query.getSort();
+        return query.getQuery();
+    }
+
+    /**
+     * Several operators through add(), paged.
+     */
+    @Benchmark
+    public DBObject complex() {
+        Query query = new Query()
+            .add("$in", "tags", new String[] {"alpha", "beta"})
+            .add("$ne", "email", null)
+            .add("$gte", "age", 18)
+            .add("$lte", "age", 99)
+            .eq("attr00", "value");
+        query.setPageSize(20);
+        query.setPageNumber(3);
+        query.getSkip();
+        query.getLimit();
+        return query.getQuery();
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.vikinghammer.mongo.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import com.vikinghammer.mongo.query.MongoQueryRunner;
+import com.vikinghammer.mongo.query.impl.MongoQueryRunnerImpl;
+
+/**
+ * Reading a page of results into models with MongoQueryRunnerImpl.list,
+ * including the cursor, metrics and slow-operation bookkeeping around it.
+ *
+ * @author Sean Schulte
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryRunnerBenchmark {
+
+    @Param({"SMALL", "WIDE"})
+    public Fixtures.Shape shape;
+
+    @Param({"1", "20", "100"})
+    public int results;
+
+    private MongoQueryRunner<BenchmarkModel> _runner;
+    private DBObject _query;
+    private DBObject _sort;
+
+    @Setup
+    public void setUp() {
+        _runner = new MongoQueryRunnerImpl<BenchmarkModel>(
+            Fixtures.collection(Fixtures.documents(shape, results)),
+            new BenchmarkModelFactory()
+        );
+        _query = new BasicDBObject("age", new BasicDBObject("$gt", 21));
+        _sort = new BasicDBObject("lastSeen", -1);
+    }
+
+    @Benchmark
+    public List<BenchmarkModel> list() {
+        return _runner.list(_query);
+    }
+
+    @Benchmark
+    public List<BenchmarkModel> listSorted() {
+        return _runner.list(_query, _sort);
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.vikinghammer.mongo.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+import com.vikinghammer.mongo.model.Page;
+import com.vikinghammer.mongo.model.Query;
+
+/**
+ * Round trips of a page of models and of a query, through Java serialization
+ * and through the compact binary codec. Run SerializationSizes for the size
+ * of each format.
+ *
+ * The "java" benchmarks serialize the models with plain Java serialization,
+ * which is how a Page's items are written through ObjectOutputStream unless
+ * a codec is registered for them; the "codec" ones use
+ * ModelFactory.pageToBytes().
+ *
+ * @author Sean Schulte
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"SMALL", "WIDE"})
+    public Fixtures.Shape shape;
+
+    private BenchmarkModelFactory _factory;
+    private Page<BenchmarkModel> _page;
+    private Query _query;
+
+    @Setup
+    public void setUp() {
+        _factory = new BenchmarkModelFactory();
+        _page = SerializationSizes.page(_factory, shape);
+        _query = SerializationSizes.query();
+    }
+
+    @Benchmark
+    public Object pageJava() throws Exception {
+        return javaRoundTrip(_page);
+    }
+
+    @Benchmark
+    public Page<BenchmarkModel> pageCodec() {
+        return _factory.pageFromBytes(_factory.pageToBytes(_page));
+    }
+
+    @Benchmark
+    public Object queryJava() throws Exception {
+        return javaRoundTrip(_query);
+    }
+
+    static byte[] javaBytes(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static Object javaRoundTrip(Object object) throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(javaBytes(object))).readObject();
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.vikinghammer.mongo.benchmark;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mongodb.DBObject;
+
+import com.vikinghammer.mongo.db.ReadPreference;
+import com.vikinghammer.mongo.model.Page;
+import com.vikinghammer.mongo.model.Query;
+
+/**
+ * Prints the serialized size of a page of models and of a query in each
+ * format, checking that each one round-trips:
+ *
+ *   java -cp target/benchmarks.jar com.vikinghammer.mongo.benchmark.SerializationSizes
+ *
+ * "default" is what Java serialization wrote before Page and Query had their
+ * own formats: the same fields, serialized field by field. "externalizable"
+ * is a Page's own format with its items serialized by Java, "externalizable
+ * with codec" the same once ModelFactory.registerPageCodec() has been called,
+ * and "codec" is ModelFactory.pageToBytes().
+ *
+ * @author Sean Schulte
+ */
+public class SerializationSizes {
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkModelFactory factory = new BenchmarkModelFactory();
+
+        Query query = query();
+        Query copy = (Query)SerializationBenchmark.javaRoundTrip(query);
+        _check("query", query.getQuery().equals(copy.getQuery()) && query.getSort().equals(copy.getSort()) && copy.getReadPreference() == query.getReadPreference());
+        System.out.println(String.format(
+            "query: default %d bytes, externalizable %d bytes",
+            SerializationBenchmark.javaBytes(new DefaultQuery(query)).length,
+            SerializationBenchmark.javaBytes(query).length
+        ));
+
+        // a page's items are written with Java serialization until a codec is registered for them
+        Fixtures.Shape[] shapes = Fixtures.Shape.values();
+        int[] externalizable = new int[shapes.length];
+        for (int i = 0; i < shapes.length; i++) {
+            externalizable[i] = SerializationBenchmark.javaBytes(page(factory, shapes[i])).length;
+        }
+        factory.registerPageCodec(BenchmarkModel.class);
+
+        for (int i = 0; i < shapes.length; i++) {
+            Page<BenchmarkModel> page = page(factory, shapes[i]);
+            _checkPage(page, factory.pageFromBytes(factory.pageToBytes(page)));
+            @SuppressWarnings("unchecked")
+            Page<BenchmarkModel> copied = (Page<BenchmarkModel>)SerializationBenchmark.javaRoundTrip(page);
+            _checkPage(page, copied);
+            System.out.println(String.format(
+                "page of %d %s models: default %d bytes, externalizable %d bytes, externalizable with codec %d bytes, codec %d bytes",
+                page.getItems().size(),
+                shapes[i],
+                SerializationBenchmark.javaBytes(new DefaultPage(page)).length,
+                externalizable[i],
+                SerializationBenchmark.javaBytes(page).length,
+                factory.pageToBytes(page).length
+            ));
+        }
+    }
+
+    private static void _checkPage(Page<BenchmarkModel> page, Page<BenchmarkModel> decoded) {
+        _check("page", decoded.getItems().size() == page.getItems().size()
+            && decoded.getItems().get(0).getId().equals(page.getItems().get(0).getId())
+            && decoded.getItems().get(0).getAttributes().size() == page.getItems().get(0).getAttributes().size());
+    }
+
+    private static void _check(String what, boolean ok) {
+        if (!ok) {
+            throw new IllegalStateException(String.format("The %s didn't round-trip", what));
+        }
+    }
+
+    static Page<BenchmarkModel> page(BenchmarkModelFactory factory, Fixtures.Shape shape) {
+        Page<BenchmarkModel> page = new Page<BenchmarkModel>();
+        page.setPageNumber(3);
+        page.setPageSize(20);
+        page.setTotalItems(1234L);
+        for (DBObject doc : Fixtures.documents(shape, 20)) {
+            page.addItem(factory.build(doc));
+        }
+        return page;
+    }
+
+    static Query query() {
+        Query query = new Query()
+            .eq("name", "User 1")
+            .gt("age", 21)
+            .lt("age", 65)
+            .sort("lastSeen", -1);
+        query.setPageSize(20);
+        query.setPageNumber(3);
+        query.setReadPreference(ReadPreference.SECONDARY_PREFERRED);
+        return query;
+    }
+
+    /**
+     * Page's fields, serialized the default way.
+     */
+    private static class DefaultPage implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private List<BenchmarkModel> _items;
+        private Long _totalItems;
+        private Integer _pageNumber;
+        private Integer _pageSize;
+
+        DefaultPage(Page<BenchmarkModel> page) {
+            _items = new ArrayList<BenchmarkModel>(page.getItems());
+            _totalItems = page.getTotalItems();
+            _pageNumber = page.getPageNumber();
+            _pageSize = page.getPageSize();
+        }
+    }
+
+    /**
+     * Query's fields, serialized the default way.
+     */
+    private static class DefaultQuery implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private DBObject _queryMap;
+        private DBObject _sortMap;
+        private Integer _pageSize;
+        private Integer _pageNumber;
+        private ReadPreference _readPreference;
+
+        DefaultQuery(Query query) {
+            _queryMap = query.getQuery();
+            _sortMap = query.getSort();
+            _pageSize = query.getPageSize();
+            _pageNumber = query.getPageNumber();
+            _readPreference = query.getReadPreference();
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.vikinghammer.mongo.benchmark;
+
+import com.mongodb.DBCollection;
+
+import com.vikinghammer.mongo.db.MongoDatabaseConnector;
+import com.vikinghammer.mongo.db.ReadPreference;
+
+/**
+ * A connector that hands out a stub collection instead of connecting to anything.
+ *
+ * @author Sean Schulte
+ */
+public class StubDatabaseConnector extends MongoDatabaseConnector {
+
+    private final DBCollection _collection;
+
+    public StubDatabaseConnector(DBCollection collection) {
+        super();
+        _collection = collection;
+    }
+
+    @Override
+    public DBCollection getCollection(String collectionName) {
+        return _collection;
+    }
+
+    @Override
+    public DBCollection getCollection(String collectionName, ReadPreference preference, long maxStalenessMillis) {
+        return _collection;
+    }
+
+    @Override
+    public void operationStarted() {
+    }
+
+    @Override
+    public void operationFinished() {
+    }
+
+}
@@ -0,0 +1,295 @@
+package com.vikinghammer.mongo.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.DBObject;
+
+import com.vikinghammer.mongo.benchmark.BenchmarkModel;
+import com.vikinghammer.mongo.benchmark.Fixtures;
+import com.vikinghammer.mongo.collection.MongoCollection;
+import com.vikinghammer.mongo.db.ConnectionPoolMetrics;
+import com.vikinghammer.mongo.db.MongoDatabaseConnector;
+import com.vikinghammer.mongo.exception.VersionMismatchException;
+import com.vikinghammer.mongo.metrics.LatencyHistogram;
+import com.vikinghammer.mongo.model.Query;
+
+/**
+ * Drives a mix of DAO operations against a real mongod, from many threads at
+ * a fixed overall rate, and reports throughput, latency percentiles, the
+ * version-conflict rate and the time spent waiting for a connection.
+ *
+ * Latency is measured from when each operation was scheduled to start, not
+ * from when it actually started, so a stall shows up in the percentiles
+ * instead of just quietly lowering the request rate.
+ *
+ * Everything is configured with key=value arguments:
+ *
+ *   host=localhost          the mongod (or replica set) to test against
+ *   database=loadtest       the database to use
+ *   collection=loadtest     the collection to use; it's dropped and refilled
+ *   records=10000           how many records to load before the test
+ *   shape=SMALL             SMALL or WIDE records
+ *   hotRecords=100          writes go to this many records, so writers collide
+ *   mix=read=90;page=8;write=2
+ *                           the operation mix (separate pairs with ; or ,)
+ *   threads=32              how many threads to run operations from
+ *   rate=2000               operations per second, across all threads (0 for as fast as possible)
+ *   seconds=60              how long to run, after warmUpSeconds
+ *   warmUpSeconds=10        how long to run before measuring
+ *   pageSize=20             how many records each page operation reads
+ *   connectionsPerHost=10   the size of the connection pool
+ *
+ * Run it from the benchmarks jar, eg:
+ *
+ *   java -cp target/benchmarks.jar com.vikinghammer.mongo.loadtest.LoadTest threads=64 rate=5000
+ *
+ * @author Sean Schulte
+ */
+public class LoadTest {
+
+    private final Map<String, String> _options;
+    private final Workload _workload;
+    private final int _threads;
+    private final int _rate;
+    private final int _records;
+    private final int _hotRecords;
+    private final int _pageSize;
+
+    private final Map<Workload.Operation, LatencyHistogram> _latency;
+    private final Map<Workload.Operation, AtomicLong> _errors;
+    private final AtomicLong _conflicts = new AtomicLong();
+    private final List<String> _ids = new ArrayList<String>();
+
+    private MongoDatabaseConnector _connector;
+    private MongoCollection _collection;
+    private LoadTestDao _dao;
+    private volatile boolean _measuring;
+    private volatile boolean _running;
+
+    public LoadTest(Map<String, String> options) {
+        super();
+        _options = options;
+        _workload = new Workload(_option("mix", "read=90;page=8;write=2").replace(';', ','));
+        _threads = Integer.parseInt(_option("threads", "32"));
+        _rate = Integer.parseInt(_option("rate", "2000"));
+        _records = Integer.parseInt(_option("records", "10000"));
+        _hotRecords = Math.min(_records, Integer.parseInt(_option("hotRecords", "100")));
+        _pageSize = Integer.parseInt(_option("pageSize", "20"));
+
+        _latency = new EnumMap<Workload.Operation, LatencyHistogram>(Workload.Operation.class);
+        _errors = new EnumMap<Workload.Operation, AtomicLong>(Workload.Operation.class);
+        for (Workload.Operation operation : Workload.Operation.values()) {
+            _latency.put(operation, new LatencyHistogram());
+            _errors.put(operation, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException(String.format("Bad argument \"%s\"; expected key=value", arg));
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        new LoadTest(options).run();
+    }
+
+    public void run() throws Exception {
+        _connect();
+        _load();
+
+        System.out.println(String.format(
+            "Running %s with %d threads at %s for %ss (after %ss warm-up)",
+            _workload,
+            _threads,
+            _rate > 0 ? _rate + " ops/s" : "full speed",
+            _option("seconds", "60"),
+            _option("warmUpSeconds", "10")
+        ));
+
+        _running = true;
+        final CountDownLatch done = new CountDownLatch(_threads);
+        final long intervalNanos = _rate > 0 ? (1000000000L * _threads / _rate) : 0;
+        for (int i = 0; i < _threads; i++) {
+            final long seed = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        _drive(new Random(seed), intervalNanos);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, String.format("load-test-%d", i));
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        Thread.sleep(Long.parseLong(_option("warmUpSeconds", "10")) * 1000);
+        _connector.getPoolMetrics().reset();
+        _measuring = true;
+        long start = System.nanoTime();
+        Thread.sleep(Long.parseLong(_option("seconds", "60")) * 1000);
+        _measuring = false;
+        long elapsedNanos = System.nanoTime() - start;
+        _running = false;
+        done.await();
+
+        _report(elapsedNanos);
+        _collection.shutdown();
+        _connector.shutdown();
+    }
+
+    private void _connect() throws Exception {
+        _connector = new MongoDatabaseConnector();
+        _connector.setHost(_option("host", "localhost"));
+        _connector.setDatabaseName(_option("database", "loadtest"));
+        _connector.setConnectionsPerHost(Integer.parseInt(_option("connectionsPerHost", "10")));
+        _connector.setThreadsAllowedToBlockForConnectionMultiplier(Math.max(5, _threads));
+        _connector.setPoolSampleIntervalMillis(100);
+        _connector.init();
+
+        _collection = new MongoCollection();
+        _collection.setDatabaseConnector(_connector);
+        _collection.setCollectionName(_option("collection", "loadtest"));
+        _collection.setIndices(Arrays.asList("age"));
+        _collection.init();
+
+        _dao = new LoadTestDao(_collection);
+    }
+
+    private void _load() {
+        System.out.println(String.format("Loading %d records", _records));
+        _collection.removeAllRecords();
+        Fixtures.Shape shape = Fixtures.Shape.valueOf(_option("shape", "SMALL").toUpperCase());
+        for (int i = 0; i < _records; i++) {
+            DBObject doc = Fixtures.document(shape, i);
+            doc.removeField("version");
+            _collection.save(doc);
+            _ids.add(doc.get("_id").toString());
+        }
+    }
+
+    /**
+     * Run operations on one thread until we're stopped, each at its scheduled
+     * time (or as soon as the previous one finishes, if we're behind).
+     */
+    private void _drive(Random random, long intervalNanos) {
+        long next = System.nanoTime() + (intervalNanos > 0 ? (long)(random.nextDouble() * intervalNanos) : 0);
+        while (_running) {
+            if (intervalNanos > 0) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            } else {
+                next = System.nanoTime();
+            }
+
+            Workload.Operation operation = _workload.next(random);
+            boolean measuring = _measuring;
+            try {
+                _run(operation, random, measuring);
+            } catch (RuntimeException e) {
+                if (measuring) {
+                    _errors.get(operation).incrementAndGet();
+                }
+            }
+            if (measuring) {
+                _latency.get(operation).recordNanos(System.nanoTime() - next);
+            }
+            next += intervalNanos;
+        }
+    }
+
+    private void _run(Workload.Operation operation, Random random, boolean measuring) {
+        switch (operation) {
+            case READ:
+                _dao.getById(_ids.get(random.nextInt(_ids.size())));
+                break;
+            case PAGE:
+                Query query = new Query().gt("age", 20 + random.nextInt(50));
+                query.setPageSize(_pageSize);
+                query.setPageNumber(1 + random.nextInt(3));
+                _dao.page(query);
+                break;
+            case WRITE:
+                BenchmarkModel model = _dao.getById(_ids.get(random.nextInt(_hotRecords)));
+                model.setLastSeen(new Date());
+                try {
+                    _dao.store(model);
+                } catch (VersionMismatchException e) {
+                    if (measuring) {
+                        _conflicts.incrementAndGet();
+                    }
+                }
+                break;
+        }
+    }
+
+    private void _report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1000000000.0;
+        long total = 0;
+        System.out.println();
+        System.out.println(String.format("%-6s %10s %10s %8s %9s %9s %9s %9s %9s", "op", "count", "ops/s", "errors", "p50 ms", "p95 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Workload.Operation operation : Workload.Operation.values()) {
+            LatencyHistogram latency = _latency.get(operation);
+            total += latency.getCount();
+            System.out.println(String.format(
+                "%-6s %10d %10.1f %8d %9.2f %9.2f %9.2f %9.2f %9.2f",
+                operation.name().toLowerCase(),
+                latency.getCount(),
+                latency.getCount() / seconds,
+                _errors.get(operation).get(),
+                latency.getPercentileMillis(50),
+                latency.getPercentileMillis(95),
+                latency.getPercentileMillis(99),
+                latency.getPercentileMillis(99.9),
+                latency.getMaxMillis()
+            ));
+        }
+        System.out.println(String.format("%-6s %10d %10.1f", "total", total, total / seconds));
+
+        long writes = _latency.get(Workload.Operation.WRITE).getCount();
+        System.out.println();
+        System.out.println(String.format(
+            "Version conflicts: %d of %d writes (%.2f%%)",
+            _conflicts.get(),
+            writes,
+            writes == 0 ? 0 : 100.0 * _conflicts.get() / writes
+        ));
+
+        ConnectionPoolMetrics pool = _connector.getPoolMetrics();
+        System.out.println(String.format(
+            "Connection wait: mean %.2f ms, p99 %.2f ms, max %.2f ms; peak in use %d, peak waiters %d",
+            pool.getMeanWaitMillis(),
+            pool.getP99WaitMillis(),
+            pool.getMaxWaitMillis(),
+            pool.getPeakInUse(),
+            pool.getPeakWaiters()
+        ));
+        System.out.println(pool.getPoolSizingReport());
+    }
+
+    private String _option(String key, String defaultValue) {
+        String value = _options.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+}
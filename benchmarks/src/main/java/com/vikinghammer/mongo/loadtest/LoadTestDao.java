@@ -0,0 +1,25 @@
+package com.vikinghammer.mongo.loadtest;
+
+import com.vikinghammer.mongo.benchmark.BenchmarkModel;
+import com.vikinghammer.mongo.benchmark.BenchmarkModelFactory;
+import com.vikinghammer.mongo.collection.MongoCollection;
+import com.vikinghammer.mongo.dao.AbstractMongoDao;
+import com.vikinghammer.mongo.model.Page;
+import com.vikinghammer.mongo.model.Query;
+
+/**
+ * The DAO the load test drives, as an application would write it.
+ *
+ * @author Sean Schulte
+ */
+public class LoadTestDao extends AbstractMongoDao<BenchmarkModel> {
+
+    public LoadTestDao(MongoCollection collection) {
+        super(collection, new BenchmarkModelFactory());
+    }
+
+    public Page<BenchmarkModel> page(Query query) {
+        return _queryRunner.page(query);
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.vikinghammer.mongo.loadtest;
+
+import java.util.Random;
+
+/**
+ * The mix of operations the load test runs, eg "read=90,page=8,write=2"
+ * for 90% getById, 8% paged find(Query) and 2% read-modify-store.
+ *
+ * @author Sean Schulte
+ */
+public class Workload {
+
+    /**
+     * The operations a load test can run.
+     */
+    public enum Operation {
+
+        /** getById on a random record */
+        READ,
+        /** a page of records, through find(Query) */
+        PAGE,
+        /** getById then store on one of the hot records, which is where version conflicts come from */
+        WRITE
+
+    }
+
+    private final int[] _weights;
+    private final int _total;
+
+    /**
+     * @param mix - comma-separated operation=weight pairs; weights needn't add up to 100
+     */
+    public Workload(String mix) {
+        super();
+        _weights = new int[Operation.values().length];
+        int total = 0;
+        for (String pair : mix.split(",")) {
+            String[] parts = pair.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(String.format("Bad operation mix \"%s\"; expected eg read=90,page=8,write=2", mix));
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            _weights[Operation.valueOf(parts[0].trim().toUpperCase()).ordinal()] = weight;
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException(String.format("Operation mix \"%s\" has no weight", mix));
+        }
+        _total = total;
+    }
+
+    /**
+     * @param random - the calling thread's random
+     * @return the next operation to run
+     */
+    public Operation next(Random random) {
+        int pick = random.nextInt(_total);
+        for (Operation operation : Operation.values()) {
+            pick -= _weights[operation.ordinal()];
+            if (pick < 0) {
+                return operation;
+            }
+        }
+        return Operation.READ;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(String.format("%s %.1f%%", operation.name().toLowerCase(), 100.0 * _weights[operation.ordinal()] / _total));
+        }
+        return builder.toString();
+    }
+
+}
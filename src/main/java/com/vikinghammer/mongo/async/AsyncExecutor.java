@@ -0,0 +1,175 @@
+package com.vikinghammer.mongo.async;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs blocking Mongo calls in the background, so callers can start several
+ * independent reads at once and wait for them together.
+ *
+ * The executor is bounded two ways: no more than maxConcurrency calls run at
+ * once, and no more than queueSize more are allowed to wait; anything beyond
+ * that is rejected straight away (the future fails with a
+ * RejectedExecutionException) rather than piling up.
+ *
+ * By default we run the calls on our own pool of maxConcurrency threads. You
+ * can supply your own ExecutorService instead; on a JVM with virtual threads,
+ * Executors.newVirtualThreadPerTaskExecutor() is a good choice, and the
+ * concurrency limit still applies.
+ *
+ * Configure this with Spring; the init() method MUST be called.
+ *
+ * @author Sean Schulte
+ */
+public class AsyncExecutor {
+
+    private int _maxConcurrency;
+    private int _queueSize;
+    private ExecutorService _executorService;
+
+    private boolean _ownsExecutorService;
+    private Semaphore _admitted;
+    private Semaphore _running;
+    private final AtomicLong _rejected = new AtomicLong();
+
+    public AsyncExecutor() {
+        super();
+        _maxConcurrency = 32;
+        _queueSize = 1000;
+    }
+
+    /**
+     * Set up the limits, and our own thread pool if no ExecutorService was supplied.
+     */
+    public void init() {
+        _admitted = new Semaphore(_maxConcurrency + _queueSize);
+        _running = new Semaphore(_maxConcurrency);
+
+        if (_executorService == null) {
+            _ownsExecutorService = true;
+            final AtomicInteger threadNumber = new AtomicInteger();
+            _executorService = new ThreadPoolExecutor(
+                _maxConcurrency,
+                _maxConcurrency,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, String.format("mongo-async-%d", threadNumber.incrementAndGet()));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+            );
+            ((ThreadPoolExecutor)_executorService).allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Stop the thread pool, if it's ours. An ExecutorService that was supplied
+     * is left for its owner to shut down.
+     */
+    public void shutdown() {
+        if (_ownsExecutorService) {
+            _executorService.shutdown();
+        }
+    }
+
+    /**
+     * Run the task in the background.
+     *
+     * @param task - the blocking call to make
+     * @return a future that completes with the task's result, or with whatever it threw
+     */
+    public <R> CompletableFuture<R> submit(final Callable<R> task) {
+        final CompletableFuture<R> future = new CompletableFuture<R>();
+        if (!_admitted.tryAcquire()) {
+            _rejected.incrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException(String.format(
+                "%d calls are already running or waiting",
+                _maxConcurrency + _queueSize
+            )));
+            return future;
+        }
+
+        try {
+            _executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        _running.acquire();
+                        try {
+                            if (!future.isDone()) {
+                                future.complete(task.call());
+                            }
+                        } finally {
+                            _running.release();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        future.completeExceptionally(e);
+                    } catch (Throwable e) {
+                        // an Error too, or the caller would wait on the future forever
+                        future.completeExceptionally(e);
+                        if (e instanceof Error) {
+                            throw (Error)e;
+                        }
+                    } finally {
+                        _admitted.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            _admitted.release();
+            _rejected.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return the number of calls that were rejected because the executor was full
+     */
+    public long getRejected() {
+        return _rejected.get();
+    }
+
+    /**
+     * The most calls that can run at once (defaults to 32).
+     *
+     * @param maxConcurrency
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        _maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * The most calls that can wait for a turn (defaults to 1000).
+     *
+     * @param queueSize
+     */
+    public void setQueueSize(int queueSize) {
+        _queueSize = queueSize;
+    }
+
+    /**
+     * Run the calls on this ExecutorService instead of our own thread pool.
+     *
+     * @param executorService
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        _executorService = executorService;
+    }
+
+}
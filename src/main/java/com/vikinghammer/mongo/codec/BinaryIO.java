@@ -0,0 +1,141 @@
+package com.vikinghammer.mongo.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.bson.BSON;
+import org.bson.BSONDecoder;
+
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBCallback;
+
+/**
+ * The building blocks of our compact binary formats: variable-length
+ * integers, so small numbers take one byte instead of four or eight, and
+ * documents as BSON, instead of Java's serialization of a BasicDBObject.
+ *
+ * Nullable values may be negative, so they're zigzag encoded (0, -1, 1, -2,
+ * 2... become 0, 1, 2, 3, 4...) and then written with one added, so that 0
+ * can mean null.
+ *
+ * @author Sean Schulte
+ */
+public final class BinaryIO {
+
+    private BinaryIO() {
+    }
+
+    /**
+     * Write a non-negative number in as few bytes as it needs, seven bits at a time.
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        if (value < 0) {
+            throw new IllegalArgumentException(String.format("Can't write %d as a varint", value));
+        }
+        _writeUnsignedVarLong(out, value);
+    }
+
+    /**
+     * Write all 64 bits of the value as an unsigned number.
+     */
+    private static void _writeUnsignedVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        writeVarLong(out, value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        return (int)readVarLong(in);
+    }
+
+    public static void writeNullableInt(DataOutput out, Integer value) throws IOException {
+        _writeUnsignedVarLong(out, value == null ? 0 : _zigzag(value.longValue()) + 1);
+    }
+
+    public static Integer readNullableInt(DataInput in) throws IOException {
+        long value = readVarLong(in);
+        return value == 0 ? null : Integer.valueOf((int)_unzigzag(value - 1));
+    }
+
+    /**
+     * Write a nullable long. Every value but Long.MIN_VALUE can be written;
+     * there's no room left for it once null has taken 0.
+     */
+    public static void writeNullableLong(DataOutput out, Long value) throws IOException {
+        if (value != null && value.longValue() == Long.MIN_VALUE) {
+            throw new IllegalArgumentException("Can't write Long.MIN_VALUE as a nullable long");
+        }
+        _writeUnsignedVarLong(out, value == null ? 0 : _zigzag(value.longValue()) + 1);
+    }
+
+    public static Long readNullableLong(DataInput in) throws IOException {
+        long value = readVarLong(in);
+        return value == 0 ? null : Long.valueOf(_unzigzag(value - 1));
+    }
+
+    private static long _zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long _unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write a document as BSON, preceded by its length (or 0 if it's null).
+     */
+    public static void writeDBObject(DataOutput out, DBObject doc) throws IOException {
+        if (doc == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = BSON.encode(doc);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a document written by writeDBObject(). Nested documents and
+     * arrays come back as BasicDBObject and BasicDBList, just as they would
+     * from the database.
+     */
+    public static DBObject readDBObject(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return decode(bytes);
+    }
+
+    /**
+     * @param bytes - a BSON document
+     * @return the document
+     */
+    public static DBObject decode(byte[] bytes) {
+        DefaultDBCallback callback = new DefaultDBCallback(null);
+        new BSONDecoder().decode(bytes, callback);
+        return (DBObject)callback.get();
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.vikinghammer.mongo.codec;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BSONObject;
+import org.bson.types.Binary;
+
+import com.mongodb.DBObject;
+
+/**
+ * A view of a document in which compressed fields read as their original
+ * strings. Each field is only decompressed if (and when) it's read, and only
+ * once. Both get() and toMap() return the decompressed strings; getRaw()
+ * returns a field as it's stored. ModelFactory.build() hands one of these to
+ * doCreateModel() when the factory has compressed fields.
+ *
+ * @author Sean Schulte
+ */
+public class DecompressingDBObject implements DBObject {
+
+    private final DBObject _doc;
+    private final FieldCompressor _compressor;
+    private Map<String, String> _decompressed;
+
+    public DecompressingDBObject(DBObject doc, FieldCompressor compressor) {
+        super();
+        _doc = doc;
+        _compressor = compressor;
+    }
+
+    @Override
+    public Object get(String key) {
+        Object value = _doc.get(key);
+        if (!FieldCompressor.isCompressed(value)) {
+            return value;
+        }
+        if (_decompressed == null) {
+            _decompressed = new HashMap<String, String>();
+        }
+        String decompressed = _decompressed.get(key);
+        if (decompressed == null) {
+            decompressed = _compressor.decompress(((Binary)value).getData());
+            _decompressed.put(key, decompressed);
+        }
+        return decompressed;
+    }
+
+    /**
+     * @param key
+     * @return the field as it's stored, without decompressing it
+     */
+    public Object getRaw(String key) {
+        return _doc.get(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (_decompressed != null) {
+            _decompressed.remove(key);
+        }
+        return _doc.put(key, value);
+    }
+
+    @Override
+    public void putAll(BSONObject other) {
+        for (String key : other.keySet()) {
+            put(key, other.get(key));
+        }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void putAll(Map map) {
+        for (Object key : map.keySet()) {
+            put(String.valueOf(key), map.get(key));
+        }
+    }
+
+    /**
+     * @return a copy of the document, with every compressed field decompressed
+     */
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public Map toMap() {
+        Map map = new LinkedHashMap(_doc.toMap());
+        for (String key : _doc.keySet()) {
+            if (FieldCompressor.isCompressed(_doc.get(key))) {
+                map.put(key, get(key));
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public Object removeField(String key) {
+        if (_decompressed != null) {
+            _decompressed.remove(key);
+        }
+        return _doc.removeField(key);
+    }
+
+    @Override
+    @Deprecated
+    public boolean containsKey(String key) {
+        return _doc.containsField(key);
+    }
+
+    @Override
+    public boolean containsField(String key) {
+        return _doc.containsField(key);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return _doc.keySet();
+    }
+
+    @Override
+    public void markAsPartialObject() {
+        _doc.markAsPartialObject();
+    }
+
+    @Override
+    public boolean isPartialObject() {
+        return _doc.isPartialObject();
+    }
+
+    @Override
+    public String toString() {
+        return _doc.toString();
+    }
+
+}
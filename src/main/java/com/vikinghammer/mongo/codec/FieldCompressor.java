@@ -0,0 +1,128 @@
+package com.vikinghammer.mongo.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.bson.types.Binary;
+
+import com.vikinghammer.mongo.metrics.CompressionMetrics;
+
+/**
+ * Compresses string fields with Deflate, into BSON binary with a subtype of
+ * our own, so a compressed value can always be told apart from anything else
+ * in the document.
+ *
+ * @author Sean Schulte
+ */
+public class FieldCompressor {
+
+    /** the BSON binary subtype for a Deflate-compressed UTF-8 string (in the user-defined range) */
+    public static final byte SUBTYPE = (byte)0x80;
+
+    private static final ThreadMXBean _threads = ManagementFactory.getThreadMXBean();
+
+    private final CompressionMetrics _metrics;
+
+    public FieldCompressor(CompressionMetrics metrics) {
+        super();
+        _metrics = metrics;
+    }
+
+    /**
+     * @param value - the string to compress
+     * @param threshold - don't compress strings smaller than this many bytes
+     * @return the compressed value, or the string itself if it's too small or doesn't get any smaller
+     */
+    public Object compress(String value, int threshold) {
+        byte[] raw = _utf8(value);
+        if (raw.length < threshold) {
+            _metrics.skipped();
+            return value;
+        }
+
+        long start = _cpuNanos();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        if (compressed.size() >= raw.length) {
+            _metrics.incompressible(_cpuNanos() - start);
+            return value;
+        }
+        _metrics.compressed(raw.length, compressed.size(), _cpuNanos() - start);
+        return new Binary(SUBTYPE, compressed.toByteArray());
+    }
+
+    /**
+     * @param value - a field value
+     * @return true if it's a value compressed by this class
+     */
+    public static boolean isCompressed(Object value) {
+        return (value instanceof Binary) && ((Binary)value).getType() == SUBTYPE;
+    }
+
+    /**
+     * @param compressed - the data of a value compressed by this class
+     * @return the original string
+     */
+    public String decompress(byte[] compressed) {
+        long start = _cpuNanos();
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(compressed.length * 4);
+        try {
+            inflater.setInput(compressed);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed field");
+                }
+                raw.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed field", e);
+        } finally {
+            inflater.end();
+        }
+        try {
+            String value = raw.toString("UTF-8");
+            _metrics.decompressed(_cpuNanos() - start);
+            return value;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the CPU time of the current thread, or elapsed time if the JVM can't measure CPU time
+     */
+    private static long _cpuNanos() {
+        if (_threads.isCurrentThreadCpuTimeSupported() && _threads.isThreadCpuTimeEnabled()) {
+            return _threads.getCurrentThreadCpuTime();
+        }
+        return System.nanoTime();
+    }
+
+    private static byte[] _utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
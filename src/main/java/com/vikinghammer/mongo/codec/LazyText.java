@@ -0,0 +1,82 @@
+package com.vikinghammer.mongo.codec;
+
+import java.io.Serializable;
+
+import org.bson.types.Binary;
+
+import com.vikinghammer.mongo.metrics.CompressionMetrics;
+
+/**
+ * A compressed string field that isn't decompressed until something asks for
+ * it. Give your model one of these (from ModelFactory.getLazyText()) instead
+ * of a String, and the decompression is only paid for by the code that reads
+ * the field. If it's never read, it's saved back exactly as it was loaded.
+ *
+ * @author Sean Schulte
+ */
+public class LazyText implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] _compressed;
+    private final transient FieldCompressor _compressor;
+    private volatile String _value;
+
+    /**
+     * @param value - a string that was never compressed
+     */
+    public LazyText(String value) {
+        super();
+        _compressed = null;
+        _compressor = null;
+        _value = value;
+    }
+
+    /**
+     * @param compressed - the data of a value compressed by the compressor
+     * @param compressor - the compressor to decompress it with
+     */
+    public LazyText(byte[] compressed, FieldCompressor compressor) {
+        super();
+        _compressed = compressed;
+        _compressor = compressor;
+    }
+
+    /**
+     * @return the string, decompressing it the first time it's asked for
+     */
+    public String get() {
+        String value = _value;
+        if (value == null && _compressed != null) {
+            FieldCompressor compressor = (_compressor != null) ? _compressor : new FieldCompressor(new CompressionMetrics());
+            value = compressor.decompress(_compressed);
+            _value = value;
+        }
+        return value;
+    }
+
+    /**
+     * @return true if the string has been decompressed (or never was compressed)
+     */
+    public boolean isLoaded() {
+        return _value != null || _compressed == null;
+    }
+
+    /**
+     * @param compressor - the compressor to use, if it needs compressing
+     * @param threshold - don't compress strings smaller than this many bytes
+     * @return the value to store in the document: the original compressed data, if we still have it
+     */
+    public Object toStoredValue(FieldCompressor compressor, int threshold) {
+        if (_compressed != null) {
+            return new Binary(FieldCompressor.SUBTYPE, _compressed);
+        }
+        return (_value == null) ? null : compressor.compress(_value, threshold);
+    }
+
+    @Override
+    public String toString() {
+        return get();
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.vikinghammer.mongo.collection;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vikinghammer.mongo.exception.BulkheadRejectedException;
+import com.vikinghammer.mongo.metrics.LatencyHistogram;
+
+/**
+ * Limits how many operations a single MongoCollection can run at once, so
+ * one slow or hot collection can't take every connection in the shared pool.
+ *
+ * Operations beyond the limit wait in a bounded queue for up to maxWaitMillis;
+ * if the queue is full, or the wait runs out, the operation is rejected with a
+ * BulkheadRejectedException.
+ *
+ * @author Sean Schulte
+ */
+public class Bulkhead implements BulkheadMBean {
+
+    private final String _collectionName;
+    private final int _maxConcurrent;
+    private final int _maxQueued;
+    private final long _maxWaitMillis;
+
+    private final Semaphore _permits;
+    private final AtomicInteger _queued = new AtomicInteger();
+    private final AtomicLong _admitted = new AtomicLong();
+    private final AtomicLong _queuedTotal = new AtomicLong();
+    private final AtomicLong _rejected = new AtomicLong();
+    private final LatencyHistogram _queueWait = new LatencyHistogram();
+
+    /**
+     * @param collectionName - the collection this bulkhead protects
+     * @param maxConcurrent - the number of operations that can run at once
+     * @param maxQueued - the number of operations that can wait for a turn
+     * @param maxWaitMillis - how long an operation can wait for a turn
+     */
+    public Bulkhead(String collectionName, int maxConcurrent, int maxQueued, long maxWaitMillis) {
+        super();
+        _collectionName = collectionName;
+        _maxConcurrent = maxConcurrent;
+        _maxQueued = maxQueued;
+        _maxWaitMillis = maxWaitMillis;
+        _permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Wait for a turn to run an operation, for no longer than maxWaitMillis.
+     *
+     * @throws BulkheadRejectedException if the queue is full, or we ran out of time
+     */
+    public void acquire() {
+        acquire(_maxWaitMillis);
+    }
+
+    /**
+     * Wait for a turn to run an operation.
+     *
+     * @param waitMillis - the longest we're willing to wait
+     * @throws BulkheadRejectedException if the queue is full, or we ran out of time
+     */
+    public void acquire(long waitMillis) {
+        if (_permits.tryAcquire()) {
+            _admitted.incrementAndGet();
+            return;
+        }
+
+        if (_queued.incrementAndGet() > _maxQueued) {
+            _queued.decrementAndGet();
+            _rejected.incrementAndGet();
+            throw new BulkheadRejectedException(_collectionName, String.format("%d operations already waiting", _maxQueued));
+        }
+
+        _queuedTotal.incrementAndGet();
+        long start = System.nanoTime();
+        boolean acquired = false;
+        try {
+            acquired = _permits.tryAcquire(Math.min(waitMillis, _maxWaitMillis), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            _queued.decrementAndGet();
+            _queueWait.recordNanos(System.nanoTime() - start);
+        }
+
+        if (!acquired) {
+            _rejected.incrementAndGet();
+            throw new BulkheadRejectedException(_collectionName, String.format("no turn available within %dms", Math.min(waitMillis, _maxWaitMillis)));
+        }
+        _admitted.incrementAndGet();
+    }
+
+    /**
+     * Give up our turn, once the operation is done.
+     */
+    public void release() {
+        _permits.release();
+    }
+
+    @Override
+    public int getMaxConcurrent() {
+        return _maxConcurrent;
+    }
+
+    @Override
+    public int getMaxQueued() {
+        return _maxQueued;
+    }
+
+    @Override
+    public int getActive() {
+        return _maxConcurrent - _permits.availablePermits();
+    }
+
+    @Override
+    public int getQueued() {
+        return _queued.get();
+    }
+
+    @Override
+    public long getAdmitted() {
+        return _admitted.get();
+    }
+
+    @Override
+    public long getQueuedTotal() {
+        return _queuedTotal.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return _rejected.get();
+    }
+
+    @Override
+    public double getMeanQueueWaitMillis() {
+        return _queueWait.getMeanMillis();
+    }
+
+    @Override
+    public double getP99QueueWaitMillis() {
+        return _queueWait.getPercentileMillis(99);
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.vikinghammer.mongo.collection;
+
+/**
+ * The JMX view of a collection's bulkhead.
+ *
+ * @author Sean Schulte
+ */
+public interface BulkheadMBean {
+
+    public int getMaxConcurrent();
+
+    public int getMaxQueued();
+
+    public int getActive();
+
+    public int getQueued();
+
+    public long getAdmitted();
+
+    public long getQueuedTotal();
+
+    public long getRejected();
+
+    public double getMeanQueueWaitMillis();
+
+    public double getP99QueueWaitMillis();
+
+}
@@ -0,0 +1,510 @@
+package com.vikinghammer.mongo.collection;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.util.Assert;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+
+import com.vikinghammer.mongo.factory.ModelFactory;
+import com.vikinghammer.mongo.model.MongoModel;
+
+/**
+ * Delivers documents to subscribers as they're added to a collection, so you
+ * don't have to poll it.
+ *
+ * On a capped collection, this reads from a tailable, await-data cursor, and
+ * documents arrive as soon as they're inserted. On any other collection, it
+ * polls for documents by positionField (the _id, by default), in order.
+ *
+ * Positions aren't handed out in the order documents become visible: every
+ * client generates its own ObjectIds, clocks differ, and a slow insert can be
+ * committed after a faster, later one. So each read starts lookbackMillis
+ * before the last position, and documents we've already delivered are
+ * skipped. That only works for ObjectId and Date positions; any other kind of
+ * position field must be assigned in the order documents are committed, or
+ * documents that show up late will be missed.
+ *
+ * Each subscriber has its own bounded buffer and its own thread. When a
+ * subscriber's buffer is full, reading stops until it catches up, so a slow
+ * subscriber slows the whole feed down rather than losing documents.
+ *
+ * The feed remembers the position of the last document it read, and if the
+ * cursor dies or the connection drops, it starts again from there. You can
+ * save getPosition() somewhere and pass it to setPosition() to resume after a
+ * restart (documents from up to lookbackMillis before it may be delivered
+ * again); otherwise the feed starts with whatever's added after start().
+ *
+ * Get one of these from MongoCollection.changeFeed().
+ *
+ * @author Sean Schulte
+ */
+public class ChangeFeed<M extends MongoModel> {
+
+    // how long stop() waits for the reader to notice
+    private static final long STOP_WAIT_MILLIS = 5000;
+
+	private Logger _log = LoggerFactory.getLogger(getClass());
+
+    private final MongoCollection _collection;
+    private final ModelFactory<M> _modelFactory;
+    private final List<Subscription> _subscriptions;
+    private final AtomicLong _read = new AtomicLong();
+    private final AtomicLong _reconnects = new AtomicLong();
+
+    private String _positionField;
+    private long _pollIntervalMillis;
+    private long _reconnectDelayMillis;
+    private int _batchSize;
+    private long _lookbackMillis;
+
+    // the _ids (and position times) of the documents delivered within the lookback, so we don't deliver them twice
+    private final Map<Object, Long> _delivered = new LinkedHashMap<Object, Long>();
+    private volatile Object _position;
+    private volatile boolean _running;
+    private volatile DBCursor _cursor;
+    private Thread _reader;
+
+    ChangeFeed(MongoCollection collection, ModelFactory<M> modelFactory) {
+        super();
+        _collection = collection;
+        _modelFactory = modelFactory;
+        _subscriptions = new CopyOnWriteArrayList<Subscription>();
+        _positionField = "_id";
+        _pollIntervalMillis = 1000;
+        _reconnectDelayMillis = 1000;
+        _batchSize = 100;
+        _lookbackMillis = 10000;
+    }
+
+    /**
+     * Add a subscriber; call this before start() if it mustn't miss anything.
+     *
+     * @param listener - the subscriber
+     * @param bufferSize - how many documents can wait for the subscriber before the feed stops reading
+     * @return a handle for cancelling the subscription
+     */
+    public Subscription subscribe(ChangeFeedListener<M> listener, int bufferSize) {
+        Subscription subscription = new Subscription(listener, bufferSize);
+        _subscriptions.add(subscription);
+        subscription.start();
+        return subscription;
+    }
+
+    /**
+     * Start reading the feed in the background. If it was stopped, this
+     * carries on from where it stopped; subscribe again first, since stopping
+     * cancelled the subscriptions.
+     */
+    public synchronized void start() {
+        Assert.isTrue(!_running, "The change feed is already running");
+        // the old reader must be gone before a new one touches what it was using
+        Assert.isTrue(_reader == null || !_reader.isAlive(), "The change feed's previous reader hasn't stopped yet");
+        _running = true;
+
+        final DBCollection collection = _collection.getDBCollection();
+        if (_position == null) {
+            _position = _latestPosition(collection);
+            _skipExisting(collection);
+        }
+
+        _reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                _read(collection);
+            }
+        }, String.format("mongo-change-feed-%s", _collection.getCollectionName()));
+        _reader.setDaemon(true);
+        _reader.start();
+    }
+
+    /**
+     * Stop reading, and stop every subscriber. Anything still buffered is
+     * dropped. This waits (for a few seconds at most) for the reader to stop.
+     */
+    public synchronized void stop() {
+        _running = false;
+        DBCursor cursor = _cursor;
+        if (cursor != null) {
+            cursor.close();
+        }
+        if (_reader != null) {
+            _reader.interrupt();
+        }
+        for (Subscription subscription : _subscriptions) {
+            subscription.cancel();
+        }
+        if (_reader != null) {
+            try {
+                _reader.join(STOP_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (_reader.isAlive()) {
+                _log.warn(String.format("Change feed on %s is still stopping after %dms", _collection.getCollectionName(), STOP_WAIT_MILLIS));
+            }
+        }
+    }
+
+    private void _read(DBCollection collection) {
+        while (_running) {
+            try {
+                if (collection.isCapped()) {
+                    _tail(collection);
+                } else {
+                    _poll(collection);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                if (!_running) {
+                    return;
+                }
+                _reconnects.incrementAndGet();
+                _log.warn(String.format("Change feed on %s failed at position %s; reconnecting", _collection.getCollectionName(), _position), e);
+            }
+            try {
+                Thread.sleep(_reconnectDelayMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Follow a tailable cursor until it dies (eg, the collection was empty
+     * when we opened it, or the connection dropped).
+     */
+    private void _tail(DBCollection collection) throws InterruptedException {
+        DBCursor cursor = collection.find(_afterPosition())
+            .sort(new BasicDBObject("$natural", 1))
+            .addOption(Bytes.QUERYOPTION_TAILABLE)
+            .addOption(Bytes.QUERYOPTION_AWAITDATA);
+        _cursor = cursor;
+        try {
+            while (_running) {
+                if (cursor.hasNext()) {
+                    _deliver(cursor.next());
+                } else if (cursor.getCursorId() == 0) {
+                    return;
+                } else {
+                    _forgetDelivered();
+                }
+            }
+        } finally {
+            cursor.close();
+            _cursor = null;
+        }
+    }
+
+    /**
+     * Poll for documents past the lookback from our position, until we're
+     * stopped. Each poll reads everything in the lookback again (batchSize at
+     * a time), since that's where late documents show up.
+     */
+    private void _poll(DBCollection collection) throws InterruptedException {
+        while (_running) {
+            DBCursor cursor = collection.find(_afterPosition())
+                .sort(new BasicDBObject(_positionField, 1))
+                .batchSize(_batchSize);
+            _cursor = cursor;
+            try {
+                while (cursor.hasNext()) {
+                    _deliver(cursor.next());
+                }
+            } finally {
+                cursor.close();
+                _cursor = null;
+            }
+            _forgetDelivered();
+            Thread.sleep(_pollIntervalMillis);
+        }
+    }
+
+    private DBObject _afterPosition() {
+        if (_position == null) {
+            return new BasicDBObject();
+        }
+        return new BasicDBObject(_positionField, new BasicDBObject("$gt", _lookback(_position)));
+    }
+
+    /**
+     * @return the position lookbackMillis before the given one, or the same position if it isn't an ObjectId or Date
+     */
+    private Object _lookback(Object position) {
+        if (_lookbackMillis <= 0) {
+            return position;
+        }
+        if (position instanceof ObjectId) {
+            // the smallest ObjectId in that second
+            return new ObjectId(new Date(((ObjectId)position).getTime() - _lookbackMillis), 0, 0);
+        }
+        if (position instanceof Date) {
+            return new Date(((Date)position).getTime() - _lookbackMillis);
+        }
+        return position;
+    }
+
+    /**
+     * @return when the position was generated, or null if it isn't an ObjectId or Date
+     */
+    private static Long _time(Object position) {
+        if (position instanceof ObjectId) {
+            return ((ObjectId)position).getTime();
+        }
+        if (position instanceof Date) {
+            return ((Date)position).getTime();
+        }
+        return null;
+    }
+
+    /**
+     * Remember the documents that are already within the lookback when we
+     * start, so they aren't delivered as if they were new.
+     */
+    private void _skipExisting(DBCollection collection) {
+        Long latest = _time(_position);
+        if (latest == null || _lookbackMillis <= 0) {
+            return;
+        }
+        DBObject fields = new BasicDBObject(_positionField, 1);
+        DBCursor cursor = collection.find(_afterPosition(), fields).batchSize(_batchSize);
+        try {
+            while (cursor.hasNext()) {
+                DBObject doc = cursor.next();
+                _remember(doc.get("_id"), doc.get(_positionField));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void _remember(Object id, Object position) {
+        Long time = _time(position);
+        if (time != null && _lookbackMillis > 0) {
+            _delivered.put(id, time);
+        }
+    }
+
+    /**
+     * Forget the documents that have fallen out of the lookback; we won't read them again.
+     */
+    private void _forgetDelivered() {
+        Long latest = _time(_position);
+        if (latest == null) {
+            return;
+        }
+        // ObjectIds only have whole seconds, so keep an extra second
+        long cutoff = latest - _lookbackMillis - 1000;
+        for (Iterator<Long> times = _delivered.values().iterator(); times.hasNext(); ) {
+            if (times.next() < cutoff) {
+                times.remove();
+            }
+        }
+    }
+
+    private Object _latestPosition(DBCollection collection) {
+        DBCursor cursor = collection.find(new BasicDBObject(), new BasicDBObject(_positionField, 1))
+            .sort(new BasicDBObject(_positionField, -1))
+            .limit(1);
+        try {
+            return cursor.hasNext() ? cursor.next().get(_positionField) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void _deliver(DBObject doc) throws InterruptedException {
+        Object id = doc.get("_id");
+        if (_delivered.containsKey(id)) {
+            return;
+        }
+        M model = _modelFactory.build(doc);
+        for (Subscription subscription : _subscriptions) {
+            subscription.offer(model);
+        }
+
+        Object position = doc.get(_positionField);
+        _remember(id, position);
+        // a document that showed up late doesn't move us backwards
+        if (_position == null || _compare(position, _position) > 0) {
+            _position = position;
+        }
+        _read.incrementAndGet();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int _compare(Object a, Object b) {
+        if (!(a instanceof Comparable) || a.getClass() != b.getClass()) {
+            // we can't tell, so trust the order we read them in
+            return 1;
+        }
+        return ((Comparable<Object>)a).compareTo(b);
+    }
+
+    /**
+     * @return the position of the last document read, to resume from later
+     */
+    public Object getPosition() {
+        return _position;
+    }
+
+    /**
+     * Start after this position, instead of after the latest document. Call this before start().
+     *
+     * @param position
+     */
+    public void setPosition(Object position) {
+        _position = position;
+    }
+
+    public boolean isRunning() {
+        return _running;
+    }
+
+    public long getRead() {
+        return _read.get();
+    }
+
+    public long getReconnects() {
+        return _reconnects.get();
+    }
+
+    /**
+     * The field that orders the documents, and that the position is taken from (defaults to _id).
+     *
+     * @param positionField
+     */
+    public void setPositionField(String positionField) {
+        _positionField = positionField;
+    }
+
+    /**
+     * How far behind the last position to start each read, to catch documents
+     * that are committed out of order, for ObjectId and Date position fields
+     * (defaults to 10000; 0 to only read past the last position).
+     *
+     * @param lookbackMillis
+     */
+    public void setLookbackMillis(long lookbackMillis) {
+        _lookbackMillis = lookbackMillis;
+    }
+
+    /**
+     * How often to look for new documents in a collection that isn't capped (defaults to 1000).
+     *
+     * @param pollIntervalMillis
+     */
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        _pollIntervalMillis = pollIntervalMillis;
+    }
+
+    /**
+     * How long to wait before reopening the cursor after it dies (defaults to 1000).
+     *
+     * @param reconnectDelayMillis
+     */
+    public void setReconnectDelayMillis(long reconnectDelayMillis) {
+        _reconnectDelayMillis = reconnectDelayMillis;
+    }
+
+    /**
+     * How many documents to read at a time from a collection that isn't capped (defaults to 100).
+     *
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        _batchSize = batchSize;
+    }
+
+    /**
+     * One subscriber's buffer, and the thread that empties it.
+     */
+    public class Subscription implements Runnable {
+
+        private final ChangeFeedListener<M> _listener;
+        private final BlockingQueue<M> _buffer;
+        private final AtomicLong _delivered = new AtomicLong();
+        private volatile boolean _active;
+        private Thread _thread;
+
+        private Subscription(ChangeFeedListener<M> listener, int bufferSize) {
+            _listener = listener;
+            _buffer = new ArrayBlockingQueue<M>(bufferSize);
+        }
+
+        private void start() {
+            _active = true;
+            _thread = new Thread(this, String.format("mongo-change-feed-%s-subscriber", _collection.getCollectionName()));
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+
+        /**
+         * Wait for room in the buffer, giving up if the subscription is cancelled meanwhile.
+         */
+        private void offer(M model) throws InterruptedException {
+            while (_active && !_buffer.offer(model, 100, TimeUnit.MILLISECONDS)) {
+                // the subscriber is behind; keep waiting
+            }
+        }
+
+        @Override
+        public void run() {
+            while (_active) {
+                M model;
+                try {
+                    model = _buffer.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    _listener.onChange(model);
+                    _delivered.incrementAndGet();
+                } catch (RuntimeException e) {
+                    _log.warn(String.format("Change feed subscriber %s failed on %s", _listener, model), e);
+                }
+            }
+        }
+
+        /**
+         * Stop delivering to this subscriber.
+         */
+        public void cancel() {
+            _active = false;
+            _subscriptions.remove(this);
+            _thread.interrupt();
+            _buffer.clear();
+        }
+
+        /**
+         * @return how many documents are waiting for the subscriber
+         */
+        public int getBuffered() {
+            return _buffer.size();
+        }
+
+        public long getDelivered() {
+            return _delivered.get();
+        }
+
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.vikinghammer.mongo.collection;
+
+import com.vikinghammer.mongo.model.MongoModel;
+
+/**
+ * Subscribes to a ChangeFeed. Each subscriber is called on its own thread,
+ * with the documents in the order they were read.
+ *
+ * @author Sean Schulte
+ */
+public interface ChangeFeedListener<M extends MongoModel> {
+
+    public void onChange(M model);
+
+}
@@ -0,0 +1,86 @@
+package com.vikinghammer.mongo.collection;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A consistent hash ring, which maps keys onto nodes such that adding a node
+ * only moves the keys that now belong to the new node. Each node is placed on
+ * the ring many times (as "virtual nodes"), so the keys are spread evenly.
+ *
+ * The ring is immutable; adding a node gives you a new ring.
+ *
+ * @author Sean Schulte
+ */
+public class ConsistentHashRing<N> {
+
+    private final TreeMap<Long, N> _ring;
+    private final List<N> _nodes;
+    private final int _virtualNodes;
+
+    public ConsistentHashRing(int virtualNodes) {
+        super();
+        _ring = new TreeMap<Long, N>();
+        _nodes = new ArrayList<N>();
+        _virtualNodes = virtualNodes;
+    }
+
+    /**
+     * @param node - the node to add
+     * @param name - a name for the node that stays the same across restarts (eg, its host and database)
+     * @return a new ring, with the node added
+     */
+    public ConsistentHashRing<N> with(N node, String name) {
+        ConsistentHashRing<N> ring = new ConsistentHashRing<N>(_virtualNodes);
+        ring._ring.putAll(_ring);
+        ring._nodes.addAll(_nodes);
+        for (int i = 0; i < _virtualNodes; i++) {
+            ring._ring.put(_hash(String.format("%s#%d", name, i)), node);
+        }
+        ring._nodes.add(node);
+        return ring;
+    }
+
+    /**
+     * @param key - the key to look up (its toString() is what's hashed)
+     * @return the node that owns the key, or null if the ring is empty
+     */
+    public N get(Object key) {
+        if (_ring.isEmpty()) {
+            return null;
+        }
+        SortedMap<Long, N> tail = _ring.tailMap(_hash(String.valueOf(key)));
+        if (tail.isEmpty()) {
+            return _ring.firstEntry().getValue();
+        }
+        return tail.get(tail.firstKey());
+    }
+
+    /**
+     * @return every node on the ring, in the order they were added
+     */
+    public List<N> getNodes() {
+        return _nodes;
+    }
+
+    private static long _hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.vikinghammer.mongo.collection;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.mongodb.DBCursor;
+
+/**
+ * The time by which a call must finish, covering everything it does: waiting
+ * for a turn in the bulkhead, waiting for a connection, the server's time, and
+ * iterating the cursor. Create one per call, eg Deadline.in(200), and pass it
+ * to MongoCollection.call(), findOneWithin() or getCountWithin(), to
+ * MongoQueryRunner's oneWithin() or listWithin(), or to MongoQueryRunnerImpl's
+ * pageWithin().
+ *
+ * When the deadline passes, the call is abandoned and any cursors it's
+ * tracking are closed, so the server stops working on them too. A read that's
+ * already blocked on the socket carries on until it returns or times out; see
+ * MongoCollection.call().
+ *
+ * @author Sean Schulte
+ */
+public class Deadline {
+
+    private static final ThreadLocal<Deadline> _current = new ThreadLocal<Deadline>();
+
+    private final long _timeoutMillis;
+    private final long _expiresAtNanos;
+    private final List<DBCursor> _cursors;
+    private volatile boolean _expired;
+
+    private Deadline(long timeoutMillis) {
+        super();
+        _timeoutMillis = timeoutMillis;
+        _expiresAtNanos = System.nanoTime() + (timeoutMillis * 1000000L);
+        _cursors = new CopyOnWriteArrayList<DBCursor>();
+    }
+
+    /**
+     * @param timeoutMillis - how long from now the call has
+     * @return a deadline that long from now
+     */
+    public static Deadline in(long timeoutMillis) {
+        return new Deadline(timeoutMillis);
+    }
+
+    /**
+     * @return the deadline of the call running on this thread, or null if it doesn't have one
+     */
+    public static Deadline current() {
+        return _current.get();
+    }
+
+    static void setCurrent(Deadline deadline) {
+        if (deadline == null) {
+            _current.remove();
+        } else {
+            _current.set(deadline);
+        }
+    }
+
+    /**
+     * Close the cursor if the deadline passes before the call finishes.
+     *
+     * @param cursor
+     * @return the cursor, for chaining
+     */
+    public DBCursor track(DBCursor cursor) {
+        if (cursor != null) {
+            _cursors.add(cursor);
+            if (_expired) {
+                cursor.close();
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Give up on the call: close every cursor it's tracking.
+     */
+    void expire() {
+        _expired = true;
+        closeCursors();
+    }
+
+    /**
+     * Close every cursor the call is tracking, eg because it failed, without
+     * giving up on the deadline.
+     */
+    void closeCursors() {
+        for (DBCursor cursor : _cursors) {
+            try {
+                cursor.close();
+            } catch (RuntimeException e) {
+                // the cursor may already be dead; either way, we're done with it
+            }
+        }
+    }
+
+    public boolean isExpired() {
+        return _expired || System.nanoTime() >= _expiresAtNanos;
+    }
+
+    /**
+     * @return how long the call has left (0 if the deadline has passed)
+     */
+    public long getRemainingMillis() {
+        long remainingNanos = _expiresAtNanos - System.nanoTime();
+        return (_expired || remainingNanos <= 0) ? 0 : (remainingNanos + 999999) / 1000000;
+    }
+
+    public long getTimeoutMillis() {
+        return _timeoutMillis;
+    }
+
+}
@@ -1,7 +1,22 @@
 package com.vikinghammer.mongo.collection;
 
 import java.util.List;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,14 +24,28 @@ import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
 import com.vikinghammer.mongo.db.MongoDatabaseConnector;
+import com.vikinghammer.mongo.factory.ModelFactory;
+import com.vikinghammer.mongo.db.ReadPreference;
+import com.vikinghammer.mongo.model.MongoModel;
 import com.vikinghammer.mongo.model.Query;
 import com.vikinghammer.mongo.model.DBPage;
+import com.vikinghammer.mongo.metrics.CollectionMetrics;
+import com.vikinghammer.mongo.metrics.MetricsRegistry;
+import com.vikinghammer.mongo.metrics.OperationType;
+import com.vikinghammer.mongo.profile.QueryProfiler;
+import com.vikinghammer.mongo.profile.SlowOperation;
+import com.vikinghammer.mongo.profile.SlowOperationLog;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.BasicDBObject;
 import com.mongodb.MapReduceCommand;
 import com.mongodb.MapReduceOutput;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteResult;
+import com.vikinghammer.mongo.exception.BulkheadRejectedException;
+import com.vikinghammer.mongo.exception.DeadlineExceededException;
 import com.vikinghammer.mongo.exception.VersionMismatchException;
 
 /**
@@ -33,14 +62,61 @@ public class MongoCollection {
 
 	private Logger _log = LoggerFactory.getLogger(getClass());
 
+    // the states of a call() on its worker thread
+    private static final int CALL_NEW = 0;
+    private static final int CALL_RUNNING = 1;
+    private static final int CALL_DONE = 2;
+    private static final int CALL_ABANDONED = 3;
+
     private MongoDatabaseConnector _databaseConnector;
     private String _collectionName;
     private List<String> _indices;
+    private QueryProfiler _queryProfiler;
+    private MetricsRegistry _metricsRegistry;
+    private long _slowOperationThresholdMillis;
+    private int _slowOperationSampleRate;
+    private int _maxSlowOperationsPerSecond;
+    private int _maxConcurrentOperations;
+    private int _maxQueuedOperations;
+    private long _maxQueueWaitMillis;
+    private ReadPreference _readPreference;
+    private long _maxStalenessMillis;
+    private long _writeBehindMillis;
+    private int _writeBehindBatchSize;
+    private int _maxWriteBehindPending;
+    private WriteBehindConflictListener _writeBehindConflictListener;
+    private boolean _hedgedReads;
+    private double _hedgePercentile;
+    private long _minHedgeDelayMillis;
+    private int _maxCallThreads;
 
     private DBCollection _collection;
+    private CollectionMetrics _metrics;
+    private SlowOperationLog _slowOperationLog;
+    private Bulkhead _bulkhead;
+    private WriteBehindBuffer _writeBehindBuffer;
+    private ExecutorService _executor;
+    private final AtomicLong _deadlinesExceeded = new AtomicLong();
+    private final AtomicLong _abandonedCalls = new AtomicLong();
+    private final AtomicInteger _abandonedCallsRunning = new AtomicInteger();
+    private final AtomicLong _hedges = new AtomicLong();
+    private final AtomicLong _hedgeWins = new AtomicLong();
 
     public MongoCollection() {
         super();
+        _slowOperationThresholdMillis = 0;
+        _slowOperationSampleRate = 1;
+        _maxSlowOperationsPerSecond = 10;
+        _maxConcurrentOperations = 0;
+        _maxQueuedOperations = 0;
+        _maxQueueWaitMillis = 0;
+        _writeBehindMillis = 0;
+        _writeBehindBatchSize = 500;
+        _maxWriteBehindPending = 10000;
+        _hedgedReads = false;
+        _hedgePercentile = 95;
+        _minHedgeDelayMillis = 5;
+        _maxCallThreads = 64;
     }
 
     /**
@@ -52,9 +128,197 @@ public class MongoCollection {
         Assert.notNull(_databaseConnector, "Must specify a database connector");
         Assert.notNull(_collectionName, "Must specify a collection name");
 
+        Assert.isTrue(_readPreference == null || !_databaseConnector.isSlaveOk(), String.format(
+            "Collection %s can't have a read preference; its connector lets every read go to a secondary. Set a read preference on the connector to route reads.",
+            _collectionName
+        ));
+
         _collection = _databaseConnector.getCollection(_collectionName);
 
+        if (_metricsRegistry != null) {
+            _metrics = _metricsRegistry.getCollectionMetrics(_collectionName);
+        } else {
+            _metrics = new CollectionMetrics(_collectionName);
+        }
+
+        if (_slowOperationThresholdMillis > 0) {
+            _slowOperationLog = new SlowOperationLog(
+                _log,
+                _slowOperationThresholdMillis,
+                _slowOperationSampleRate,
+                _maxSlowOperationsPerSecond
+            );
+        }
+
+        if (_maxConcurrentOperations > 0) {
+            _bulkhead = new Bulkhead(_collectionName, _maxConcurrentOperations, _maxQueuedOperations, _maxQueueWaitMillis);
+            if (_metricsRegistry != null) {
+                _metricsRegistry.registerMBean(_bulkhead, "Bulkhead", _collectionName);
+            }
+        }
+
+        if (_writeBehindMillis > 0) {
+            _writeBehindBuffer = new WriteBehindBuffer(this, _writeBehindMillis, _writeBehindBatchSize, _maxWriteBehindPending);
+            _writeBehindBuffer.setConflictListener(_writeBehindConflictListener);
+            _writeBehindBuffer.start();
+            if (_metricsRegistry != null) {
+                _metricsRegistry.registerMBean(_writeBehindBuffer, "WriteBehindBuffer", _collectionName);
+            }
+        }
+
         _ensureIndices();
+
+        if (_queryProfiler != null) {
+            _queryProfiler.registerIndices(_collectionName, _indices);
+        }
+    }
+
+    /**
+     * Save anything still waiting in the write-behind buffer. Call this when
+     * you're done with the collection (eg, as the Spring destroy-method).
+     */
+    public void shutdown() {
+        if (_writeBehindBuffer != null) {
+            _writeBehindBuffer.shutdown();
+        }
+        synchronized (this) {
+            if (_executor != null) {
+                _executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Run a call that must finish by the given deadline. Anything the call
+     * does on this collection counts against the deadline, including waiting
+     * for a turn in the bulkhead; if it runs out of time, any cursors it
+     * tracked with deadline.track() are closed, and a
+     * DeadlineExceededException is thrown.
+     *
+     * The call runs on another thread, so that we can stop waiting for it. If
+     * all maxCallThreads of them are busy, the call is rejected right away.
+     *
+     * Giving up on a call doesn't stop it: the driver's socket reads ignore
+     * interrupts, so a call that's blocked on the server keeps its thread,
+     * its turn in the bulkhead and its connection until the read returns or
+     * the connection's socketTimeout passes. Closing its tracked cursors only
+     * helps between batches. getAbandonedCalls() counts the calls we've given
+     * up on while they were running, and getAbandonedCallsRunning() how many
+     * of them haven't finished yet; set a socketTimeout to bound them.
+     *
+     * @param deadline - when the call must finish by
+     * @param operation - what the call is, for the exception message
+     * @param call - the call to make
+     * @return what the call returned
+     * @throws DeadlineExceededException if the call didn't finish in time
+     * @throws BulkheadRejectedException if there's no thread free to run it
+     */
+    public <R> R call(final Deadline deadline, String operation, final Callable<R> call) {
+        if (Deadline.current() == deadline) {
+            // we're already inside this deadline's call
+            return _unwrap(call);
+        }
+        if (deadline.isExpired()) {
+            _deadlinesExceeded.incrementAndGet();
+            throw new DeadlineExceededException(_collectionName, operation, deadline.getTimeoutMillis());
+        }
+
+        final AtomicInteger state = new AtomicInteger(CALL_NEW);
+        Future<R> future;
+        try {
+            future = _executor().submit(new Callable<R>() {
+                @Override
+                public R call() throws Exception {
+                    if (!state.compareAndSet(CALL_NEW, CALL_RUNNING)) {
+                        // we gave up on it before it started
+                        return null;
+                    }
+                    Deadline.setCurrent(deadline);
+                    try {
+                        return call.call();
+                    } catch (Exception e) {
+                        // don't leave its cursors open on the server
+                        deadline.closeCursors();
+                        throw e;
+                    } finally {
+                        Deadline.setCurrent(null);
+                        if (!state.compareAndSet(CALL_RUNNING, CALL_DONE)) {
+                            _abandonedCallsRunning.decrementAndGet();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new BulkheadRejectedException(_collectionName, String.format("all %d call threads are busy", _maxCallThreads));
+        }
+        try {
+            return future.get(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            _abandon(deadline, future, state);
+            _deadlinesExceeded.incrementAndGet();
+            throw new DeadlineExceededException(_collectionName, operation, deadline.getTimeoutMillis());
+        } catch (InterruptedException e) {
+            _abandon(deadline, future, state);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Interrupted while waiting for %s on %s", operation, _collectionName), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DeadlineExceededException) {
+                // the call noticed the deadline itself, eg between documents
+                _deadlinesExceeded.incrementAndGet();
+            }
+            throw _rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Stop waiting for a call. If it's already running, it carries on until
+     * its blocking reads return, and counts as abandoned until it finishes.
+     */
+    private void _abandon(Deadline deadline, Future<?> future, AtomicInteger state) {
+        deadline.expire();
+        // count it before the worker can see it's abandoned, so the worker's decrement always follows
+        _abandonedCallsRunning.incrementAndGet();
+        if (state.compareAndSet(CALL_RUNNING, CALL_ABANDONED)) {
+            _abandonedCalls.incrementAndGet();
+        } else {
+            _abandonedCallsRunning.decrementAndGet();
+            state.compareAndSet(CALL_NEW, CALL_ABANDONED);
+        }
+        future.cancel(true);
+    }
+
+    /**
+     * Get a single record, giving up if it takes longer than the deadline allows.
+     *
+     * @param query - a standard Mongo query
+     * @param deadline - when the read must finish by
+     * @return the first record matching the query, or null if none are found
+     * @throws DeadlineExceededException if the read didn't finish in time
+     */
+    public DBObject findOneWithin(final DBObject query, Deadline deadline) {
+        return call(deadline, OperationType.FIND_ONE.getName(), new Callable<DBObject>() {
+            @Override
+            public DBObject call() {
+                return findOne(query);
+            }
+        });
+    }
+
+    /**
+     * Count the records matching the query, giving up if it takes longer than the deadline allows.
+     *
+     * @param query - a standard Mongo query
+     * @param deadline - when the count must finish by
+     * @return the number of records matching the query
+     * @throws DeadlineExceededException if the count didn't finish in time
+     */
+    public long getCountWithin(final DBObject query, Deadline deadline) {
+        return call(deadline, OperationType.COUNT.getName(), new Callable<Long>() {
+            @Override
+            public Long call() {
+                return getCount(query);
+            }
+        });
     }
 
     /**
@@ -64,6 +328,17 @@ public class MongoCollection {
      * @param object - the record to be saved
      */
     public void save(DBObject object) {
+        long start = _begin();
+        try {
+            _save(object);
+        } catch (RuntimeException e) {
+            _failed(OperationType.SAVE, start, e);
+            throw e;
+        }
+        _succeeded(OperationType.SAVE, null, start, 1);
+    }
+
+    private void _save(DBObject object) {
         if (object.get("version") == null) {
             object.put("version", 0);
             _collection.save(object);
@@ -96,11 +371,28 @@ public class MongoCollection {
     /**
      * Get a cursor representing a set of records matching the given query.
      *
+     * Reading the cursor counts as one operation on this collection: it takes
+     * a turn in the bulkhead when the first batch is fetched, and gives it back
+     * (and records how long the read took) once the cursor has been read to
+     * the end or closed. So close a cursor you don't read to the end.
+     *
      * @param query - a standard Mongo query
      * @return a cursor object giving access to all the records matching the given query
      */
     public DBCursor find(DBObject query) {
-        return _collection.find(query);
+        return find(query, null);
+    }
+
+    /**
+     * Get a cursor representing a set of records matching the given query,
+     * reading from wherever the given preference says.
+     *
+     * @param query - a standard Mongo query
+     * @param readPreference - where to read from, or null to use the collection's read preference
+     * @return a cursor object giving access to all the records matching the given query
+     */
+    public DBCursor find(DBObject query, ReadPreference readPreference) {
+        return new TimedCursor(_readCollection(readPreference).find(query), query);
     }
 
     /**
@@ -113,7 +405,7 @@ public class MongoCollection {
      * @return all the records matching the given query
      */
     public DBCursor find(DBObject query, Integer limit, Integer skip) {
-        return _collection.find(query).skip(skip).limit(limit);
+        return find(query).skip(skip).limit(limit);
     }
 
     /**
@@ -124,9 +416,14 @@ public class MongoCollection {
      * @return DBPage describing the total number of items as well as a cursor giving access to the requested page
      */
     public DBPage find(Query query) {
+        DBCursor cursor = find(query.getQuery(), query.getReadPreference()).skip(query.getSkip()).limit(query.getLimit());
+        if (!query.getSort().keySet().isEmpty()) {
+            cursor.sort(query.getSort());
+        }
+
         DBPage page = new DBPage();
-        page.setCursor(_collection.find(query.getQuery()).skip(query.getSkip()).limit(query.getLimit()));
-        page.setTotalItems(getCount(query.getQuery()));
+        page.setCursor(cursor);
+        page.setTotalItems(getCount(query.getQuery(), query.getReadPreference()));
         page.setPageNumber(query.getPageNumber());
         page.setPageSize(query.getPageSize());
         return page;
@@ -139,7 +436,38 @@ public class MongoCollection {
      * @return the first record matching the query, or null if none are found
      */
     public DBObject findOne(DBObject query) {
-        return _collection.findOne(query);
+        return findOne(query, null);
+    }
+
+    /**
+     * Get a single record, reading from wherever the given preference says.
+     *
+     * @param query - a standard Mongo query
+     * @param readPreference - where to read from, or null to use the collection's read preference
+     * @return the first record matching the query, or null if none are found
+     */
+    public DBObject findOne(final DBObject query, ReadPreference readPreference) {
+        long start = _begin();
+        DBObject doc;
+        try {
+            ReadPreference effectiveReadPreference = _effectiveReadPreference(readPreference);
+            DBCollection collection = _readCollection(effectiveReadPreference);
+            if (_shouldHedge(effectiveReadPreference)) {
+                doc = _hedge(OperationType.FIND_ONE, collection, new HedgedRead<DBObject>() {
+                    @Override
+                    public DBObject read(DBCollection collection) {
+                        return collection.findOne(query);
+                    }
+                });
+            } else {
+                doc = collection.findOne(query);
+            }
+        } catch (RuntimeException e) {
+            _failed(OperationType.FIND_ONE, start, e);
+            throw e;
+        }
+        _succeeded(OperationType.FIND_ONE, query, start, (doc == null) ? 0 : 1);
+        return doc;
     }
 
     /**
@@ -149,7 +477,39 @@ public class MongoCollection {
      * @return the number of records matching the query
      */
     public long getCount(DBObject query) {
-        return _collection.getCount(query);
+        return getCount(query, null);
+    }
+
+    /**
+     * Get the number of records that would be returned by the given query,
+     * reading from wherever the given preference says.
+     *
+     * @param query - a standard Mongo query
+     * @param readPreference - where to read from, or null to use the collection's read preference
+     * @return the number of records matching the query
+     */
+    public long getCount(final DBObject query, ReadPreference readPreference) {
+        long start = _begin();
+        long count;
+        try {
+            ReadPreference effectiveReadPreference = _effectiveReadPreference(readPreference);
+            DBCollection collection = _readCollection(effectiveReadPreference);
+            if (_shouldHedge(effectiveReadPreference)) {
+                count = _hedge(OperationType.COUNT, collection, new HedgedRead<Long>() {
+                    @Override
+                    public Long read(DBCollection collection) {
+                        return collection.getCount(query);
+                    }
+                });
+            } else {
+                count = collection.getCount(query);
+            }
+        } catch (RuntimeException e) {
+            _failed(OperationType.COUNT, start, e);
+            throw e;
+        }
+        _succeeded(OperationType.COUNT, query, start, -1);
+        return count;
     }
 
     /**
@@ -158,7 +518,7 @@ public class MongoCollection {
      * database. You probably shouldn't ever call it in your programs.
      */
     public void removeAllRecords() {
-        _collection.remove(new BasicDBObject());
+        remove(new BasicDBObject());
     }
 
     /**
@@ -167,7 +527,58 @@ public class MongoCollection {
      * @param query - a standard Mongo query
      */
     public void remove(DBObject query) {
-        _collection.remove(query);
+        remove(query, _collection.getWriteConcern());
+    }
+
+    /**
+     * Remove all the records that match the given query, with the given write
+     * concern. Purge uses WriteConcern.SAFE, so it can tell how many it removed.
+     *
+     * @param query - a standard Mongo query
+     * @param writeConcern - how long to wait for the server
+     * @return the result of the remove
+     */
+    WriteResult remove(DBObject query, WriteConcern writeConcern) {
+        long start = _begin();
+        WriteResult result;
+        try {
+            result = _collection.remove(query, writeConcern);
+        } catch (RuntimeException e) {
+            _failed(OperationType.REMOVE, start, e);
+            throw e;
+        }
+        _succeeded(OperationType.REMOVE, query, start, -1);
+        return result;
+    }
+
+    /**
+     * Get a feed of the documents added to this collection. Configure it and
+     * subscribe to it, then call start().
+     *
+     * @param modelFactory - builds the models handed to the subscribers
+     * @return a new change feed, not yet started
+     */
+    public <M extends MongoModel> ChangeFeed<M> changeFeed(ModelFactory<M> modelFactory) {
+        return new ChangeFeed<M>(this, modelFactory);
+    }
+
+    /**
+     * Start removing every document that matches the query, in the background,
+     * a batch at a time and no faster than maxDocumentsPerSecond.
+     *
+     * @param query - the documents to remove
+     * @param batchSize - how many documents to remove at a time
+     * @param maxDocumentsPerSecond - the fastest to remove them (0 for no limit)
+     * @return a handle for watching or cancelling the purge
+     */
+    public Purge purge(DBObject query, int batchSize, int maxDocumentsPerSecond) {
+        Assert.isTrue(batchSize > 0, "The purge batch size must be positive");
+        Assert.isTrue(maxDocumentsPerSecond >= 0, "The purge rate can't be negative");
+        Purge purge = new Purge(this, query, batchSize, maxDocumentsPerSecond);
+        Thread thread = new Thread(purge, String.format("mongo-purge-%s", _collectionName));
+        thread.setDaemon(true);
+        thread.start();
+        return purge;
     }
 
     /**
@@ -185,12 +596,19 @@ public class MongoCollection {
         String collectionName,
         DBObject query
     ) {
-        _collection.mapReduce(
-            mapFunction,
-            reduceFunction,
-            collectionName,
-            query
-        );
+        long start = _begin();
+        try {
+            _collection.mapReduce(
+                mapFunction,
+                reduceFunction,
+                collectionName,
+                query
+            );
+        } catch (RuntimeException e) {
+            _failed(OperationType.MAP_REDUCE, start, e);
+            throw e;
+        }
+        _succeeded(OperationType.MAP_REDUCE, query, start, -1);
     }
 
     /**
@@ -215,11 +633,645 @@ public class MongoCollection {
             query
         );
         
-        MapReduceOutput output = _collection.mapReduce(command);
+        long start = _begin();
+        MapReduceOutput output;
+        try {
+            output = _collection.mapReduce(command);
+        } catch (RuntimeException e) {
+            _failed(OperationType.MAP_REDUCE, start, e);
+            throw e;
+        }
+        _succeeded(OperationType.MAP_REDUCE, query, start, -1);
         _log.debug(String.format("Inline map/reduce: %s", output.toString()));
         return output.results();
     }
 
+    /**
+     * The metrics for this collection. If no MetricsRegistry was configured,
+     * these are still kept, they just aren't exposed through JMX or reported.
+     *
+     * @return the metrics for this collection
+     */
+    public CollectionMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * The slow-operation log for this collection, which the query runner also
+     * uses to report slow cursor iteration.
+     *
+     * @return the slow-operation log, or null if it isn't enabled
+     */
+    public SlowOperationLog getSlowOperationLog() {
+        return _slowOperationLog;
+    }
+
+    public String getCollectionName() {
+        return _collectionName;
+    }
+
+    /**
+     * The underlying DBCollection, for the few places in this package (like
+     * shard rebalancing) that need to write documents exactly as they are,
+     * without the version handling in save().
+     *
+     * @return the DBCollection on the primary
+     */
+    DBCollection getDBCollection() {
+        return _collection;
+    }
+
+    /**
+     * Get the DBCollection a read should go to. Writes always go to the
+     * primary, through _collection.
+     *
+     * @param readPreference - the preference for this read, or null to use the collection's (or failing that, the connector's)
+     * @return the DBCollection to read from
+     */
+    private DBCollection _readCollection(ReadPreference readPreference) {
+        readPreference = _effectiveReadPreference(readPreference);
+        if (readPreference == null || readPreference == ReadPreference.PRIMARY) {
+            return _collection;
+        }
+        return _databaseConnector.getCollection(_collectionName, readPreference, _maxStalenessMillis);
+    }
+
+    /**
+     * @param readPreference - the preference for this read, or null to use the collection's (or failing that, the connector's)
+     * @return the preference the read will actually use, or null if reads aren't routed
+     */
+    private ReadPreference _effectiveReadPreference(ReadPreference readPreference) {
+        // otherwise a PRIMARY read would silently go wherever the driver sends it
+        if (readPreference != null && _databaseConnector.isSlaveOk()) {
+            throw new IllegalArgumentException(String.format(
+                "Can't read from %s with a read preference; its connector lets every read go to a secondary. Set a read preference on the connector to route reads.",
+                _collectionName
+            ));
+        }
+        if (readPreference == null) {
+            readPreference = (_readPreference != null) ? _readPreference : _databaseConnector.getReadPreference();
+        }
+        return readPreference;
+    }
+
+    /**
+     * Hedging sends the read to a second member, which is only allowed if the
+     * read may go to a secondary in the first place.
+     */
+    private boolean _shouldHedge(ReadPreference effectiveReadPreference) {
+        return _hedgedReads && effectiveReadPreference != null && effectiveReadPreference != ReadPreference.PRIMARY;
+    }
+
+    /**
+     * The bulkhead limiting how many operations this collection can run at once.
+     *
+     * @return the bulkhead, or null if there's no limit
+     */
+    public Bulkhead getBulkhead() {
+        return _bulkhead;
+    }
+
+    /**
+     * The buffer that coalesces rapid updates to the same document; the DAO
+     * sends updates through this, when it's enabled.
+     *
+     * @return the write-behind buffer, or null if it isn't enabled
+     */
+    public WriteBehindBuffer getWriteBehindBuffer() {
+        return _writeBehindBuffer;
+    }
+
+    /**
+     * @return how many calls have run past their deadlines
+     */
+    public long getDeadlinesExceeded() {
+        return _deadlinesExceeded.get();
+    }
+
+    /**
+     * @return how many calls were still running when we gave up on them
+     */
+    public long getAbandonedCalls() {
+        return _abandonedCalls.get();
+    }
+
+    /**
+     * @return how many abandoned calls are still holding a call thread (and, usually, a connection)
+     */
+    public int getAbandonedCallsRunning() {
+        return _abandonedCallsRunning.get();
+    }
+
+    /**
+     * @return how many reads were sent to a second member because the first was slow
+     */
+    public long getHedgedReads() {
+        return _hedges.get();
+    }
+
+    /**
+     * @return how many hedged reads were answered by the second member first
+     */
+    public long getHedgeWins() {
+        return _hedgeWins.get();
+    }
+
+    /**
+     * Start a timed operation, waiting for a turn if the collection has a
+     * bulkhead. Every successful call to this must be followed by exactly one
+     * call to either _succeeded() or _failed(); each of them calls _end(), so
+     * call _succeeded() outside the try block, where a failure in the profiler
+     * or slow-operation log can't also call _failed(). (A cursor that's closed
+     * while it waits for its turn calls _end() itself, since it never ran.)
+     *
+     * @return the start time of the operation, to pass along to _succeeded() or _failed()
+     * @throws BulkheadRejectedException if the bulkhead is saturated
+     */
+    private long _begin() {
+        if (_bulkhead != null) {
+            Deadline deadline = Deadline.current();
+            if (deadline != null) {
+                _bulkhead.acquire(deadline.getRemainingMillis());
+            } else {
+                _bulkhead.acquire();
+            }
+        }
+        _databaseConnector.operationStarted();
+        return System.nanoTime();
+    }
+
+    /**
+     * Finish a timed operation that was started with _begin().
+     */
+    private void _end() {
+        _databaseConnector.operationFinished();
+        if (_bulkhead != null) {
+            _bulkhead.release();
+        }
+    }
+
+    /**
+     * Record a successful operation in the metrics, hand the query off to
+     * the profiler, and log it if it was slow.
+     *
+     * @param type - the operation
+     * @param query - the query that ran, or null if it's not a query
+     * @param startNanos - when the operation started
+     * @param documents - the number of documents returned, or -1 if unknown
+     */
+    private void _succeeded(OperationType type, DBObject query, long startNanos, long documents) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        _end();
+        _metrics.success(type, elapsedNanos, documents);
+        if (_queryProfiler != null && query != null) {
+            _queryProfiler.record(_collection, type.getName(), query, elapsedNanos);
+        }
+        if (_slowOperationLog != null && _slowOperationLog.isSlow(elapsedNanos)) {
+            _slowOperationLog.log(new SlowOperation(_collectionName, type.getName())
+                .query(query)
+                .documents(documents)
+                .elapsed(elapsedNanos, -1, -1));
+        }
+    }
+
+    /**
+     * Record a failed operation in the metrics.
+     *
+     * @param type - the operation
+     * @param startNanos - when the operation started
+     * @param error - what went wrong
+     */
+    private void _failed(OperationType type, long startNanos, RuntimeException error) {
+        _end();
+        _metrics.failure(type, System.nanoTime() - startNanos, error);
+    }
+
+    /**
+     * A cursor whose read is a timed operation on this collection. The turn in
+     * the bulkhead is only taken when the first batch is fetched, so a cursor
+     * that's never read (eg, one that's only copied) never holds one; it's
+     * given back when the cursor is read to the end, fails, or is closed,
+     * whichever comes first.
+     *
+     * Everything else is passed through to the driver's cursor. Its copies
+     * (and iterator(), which the driver implements as a copy) are timed
+     * cursors too, each of them its own operation.
+     */
+    private class TimedCursor extends DBCursor {
+
+        private static final int NEW = 0;
+        private static final int OPEN = 1;
+        private static final int DONE = 2;
+
+        private final DBCursor _cursor;
+        private final DBObject _query;
+        private final AtomicInteger _state;
+        private volatile long _start;
+        private volatile int _documents;
+
+        public TimedCursor(DBCursor cursor, DBObject query) {
+            super(cursor.getCollection(), cursor.getQuery(), cursor.getKeysWanted());
+            _cursor = cursor;
+            _query = query;
+            _state = new AtomicInteger(NEW);
+        }
+
+        @Override
+        public boolean hasNext() {
+            _open();
+            boolean hasNext;
+            try {
+                hasNext = _cursor.hasNext();
+            } catch (RuntimeException e) {
+                _fail(e);
+                throw e;
+            }
+            if (!hasNext) {
+                _succeed();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public DBObject next() {
+            _open();
+            DBObject doc;
+            try {
+                doc = _cursor.next();
+            } catch (RuntimeException e) {
+                _fail(e);
+                throw e;
+            }
+            _documents++;
+            return doc;
+        }
+
+        @Override
+        public List<DBObject> toArray() {
+            return toArray(Integer.MAX_VALUE);
+        }
+
+        @Override
+        public List<DBObject> toArray(int max) {
+            _open();
+            List<DBObject> docs;
+            try {
+                docs = _cursor.toArray(max);
+            } catch (RuntimeException e) {
+                _fail(e);
+                throw e;
+            }
+            _documents = docs.size();
+            if (docs.size() < max) {
+                _succeed();
+            }
+            return docs;
+        }
+
+        @Override
+        public int length() {
+            _open();
+            int length;
+            try {
+                length = _cursor.length();
+            } catch (RuntimeException e) {
+                _fail(e);
+                throw e;
+            }
+            _documents = length;
+            _succeed();
+            return length;
+        }
+
+        @Override
+        public int itcount() {
+            int count = 0;
+            while (hasNext()) {
+                next();
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+            try {
+                _cursor.close();
+            } finally {
+                if (!_state.compareAndSet(NEW, DONE)) {
+                    _succeed();
+                }
+            }
+        }
+
+        private void _open() {
+            if (_state.get() == NEW) {
+                _start = _begin();
+                if (!_state.compareAndSet(NEW, OPEN)) {
+                    // closed while we were waiting for our turn
+                    _end();
+                }
+            }
+        }
+
+        private void _succeed() {
+            if (_state.compareAndSet(OPEN, DONE)) {
+                _succeeded(OperationType.FIND, _query, _start, _documents);
+            }
+        }
+
+        private void _fail(RuntimeException error) {
+            if (_state.compareAndSet(OPEN, DONE)) {
+                _failed(OperationType.FIND, _start, error);
+            }
+        }
+
+        @Override
+        public DBCursor copy() {
+            return new TimedCursor(_cursor.copy(), _query);
+        }
+
+        @Override
+        public Iterator<DBObject> iterator() {
+            return copy();
+        }
+
+        @Override
+        public DBCursor sort(DBObject orderBy) {
+            _cursor.sort(orderBy);
+            return this;
+        }
+
+        @Override
+        public DBCursor addSpecial(String name, Object o) {
+            _cursor.addSpecial(name, o);
+            return this;
+        }
+
+        @Override
+        public DBCursor hint(DBObject indexKeys) {
+            _cursor.hint(indexKeys);
+            return this;
+        }
+
+        @Override
+        public DBCursor hint(String indexName) {
+            _cursor.hint(indexName);
+            return this;
+        }
+
+        @Override
+        public DBCursor snapshot() {
+            _cursor.snapshot();
+            return this;
+        }
+
+        @Override
+        public DBCursor limit(int n) {
+            _cursor.limit(n);
+            return this;
+        }
+
+        @Override
+        public DBCursor batchSize(int n) {
+            _cursor.batchSize(n);
+            return this;
+        }
+
+        @Override
+        public DBCursor skip(int n) {
+            _cursor.skip(n);
+            return this;
+        }
+
+        @Override
+        public DBCursor slaveOk() {
+            _cursor.slaveOk();
+            return this;
+        }
+
+        @Override
+        public DBCursor addOption(int option) {
+            _cursor.addOption(option);
+            return this;
+        }
+
+        @Override
+        public void setOptions(int options) {
+            _cursor.setOptions(options);
+        }
+
+        @Override
+        public void resetOptions() {
+            _cursor.resetOptions();
+        }
+
+        @Override
+        public int getOptions() {
+            return _cursor.getOptions();
+        }
+
+        @Override
+        public DBObject explain() {
+            return _cursor.explain();
+        }
+
+        @Override
+        public long getCursorId() {
+            return _cursor.getCursorId();
+        }
+
+        @Override
+        public int numGetMores() {
+            return _cursor.numGetMores();
+        }
+
+        @Override
+        public List<Integer> getSizes() {
+            return _cursor.getSizes();
+        }
+
+        @Override
+        public int numSeen() {
+            return _cursor.numSeen();
+        }
+
+        @Override
+        public DBObject curr() {
+            return _cursor.curr();
+        }
+
+        @Override
+        public void remove() {
+            _cursor.remove();
+        }
+
+        @Override
+        public int count() {
+            return _cursor.count();
+        }
+
+        @Override
+        public int size() {
+            return _cursor.size();
+        }
+
+        @Override
+        public DBObject getKeysWanted() {
+            return _cursor.getKeysWanted();
+        }
+
+        @Override
+        public DBObject getQuery() {
+            return _cursor.getQuery();
+        }
+
+        @Override
+        public DBCollection getCollection() {
+            return _cursor.getCollection();
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return _cursor.getServerAddress();
+        }
+
+        @Override
+        public String toString() {
+            return _cursor.toString();
+        }
+
+    }
+
+    /**
+     * A read that's safe to send to more than one member at once.
+     */
+    private interface HedgedRead<R> {
+
+        public R read(DBCollection collection);
+
+    }
+
+    /**
+     * Send the read to the given collection, and if it hasn't answered by the
+     * time most reads of this type have (the hedge percentile of this
+     * collection's latency for the read, since startup or the last time its
+     * metrics were reset), send it to another member of the replica set too,
+     * and take whichever answer comes back first. If there's no other member
+     * to send it to, or no thread free to send it on, just wait for the first.
+     */
+    private <R> R _hedge(OperationType type, DBCollection first, final HedgedRead<R> read) {
+        long delayMillis = Math.max(_minHedgeDelayMillis, (long)Math.ceil(_metrics.get(type).getLatency().getPercentileMillis(_hedgePercentile)));
+        CompletionService<R> completion = new ExecutorCompletionService<R>(_executor());
+        List<Future<R>> futures = new ArrayList<Future<R>>(2);
+        try {
+            futures.add(completion.submit(_read(read, first)));
+        } catch (RejectedExecutionException e) {
+            // every thread is busy, so don't hedge this one
+            return read.read(first);
+        }
+        try {
+            Future<R> done = completion.poll(delayMillis, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                DBCollection second = _databaseConnector.getHedgeCollection(_collectionName, first, _maxStalenessMillis);
+                if (second != null) {
+                    try {
+                        futures.add(completion.submit(_read(read, second)));
+                        _hedges.incrementAndGet();
+                    } catch (RejectedExecutionException e) {
+                        // every thread is busy; wait for the first
+                    }
+                }
+                done = completion.take();
+            }
+
+            // take the first answer; if it's a failure, wait for the other one, if there is one
+            Throwable failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                if (i > 0) {
+                    done = completion.take();
+                }
+                try {
+                    R result = done.get();
+                    if (done != futures.get(0)) {
+                        _hedgeWins.incrementAndGet();
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            throw _rethrow(failure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Interrupted while waiting for %s on %s", type.getName(), _collectionName), e);
+        } finally {
+            for (Future<R> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <R> Callable<R> _read(final HedgedRead<R> read, final DBCollection collection) {
+        return new Callable<R>() {
+            @Override
+            public R call() {
+                return read.read(collection);
+            }
+        };
+    }
+
+    private static <R> R _unwrap(Callable<R> call) {
+        try {
+            return call.call();
+        } catch (Exception e) {
+            throw _rethrow(e);
+        }
+    }
+
+    private static RuntimeException _rethrow(Throwable error) {
+        if (error instanceof RuntimeException) {
+            return (RuntimeException)error;
+        }
+        if (error instanceof Error) {
+            throw (Error)error;
+        }
+        return new IllegalStateException(error);
+    }
+
+    /**
+     * The threads that deadline calls and hedged reads run on, started the
+     * first time they're needed. There are at most maxCallThreads of them,
+     * and nothing waits for one: if they're all busy, the task is rejected,
+     * rather than piling up threads behind a slow server.
+     */
+    private synchronized ExecutorService _executor() {
+        if (_executor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                _maxCallThreads,
+                _maxCallThreads,
+                60L,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, String.format("mongo-%s-%d", _collectionName, threadNumber.incrementAndGet()));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+            );
+            executor.allowCoreThreadTimeOut(true);
+            _executor = executor;
+        }
+        return _executor;
+    }
+
     /**
      * If any indices have been supplied, we want to ensure that the collection has
      * an index on each of them.
@@ -259,5 +1311,172 @@ public class MongoCollection {
     public void setIndices(List<String> indices) {
         _indices = indices;
     }
+
+    public void setQueryProfiler(QueryProfiler queryProfiler) {
+        _queryProfiler = queryProfiler;
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        _metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Operations that take at least this long are logged; 0 (the default) disables the slow-operation log.
+     *
+     * @param slowOperationThresholdMillis
+     */
+    public void setSlowOperationThresholdMillis(long slowOperationThresholdMillis) {
+        _slowOperationThresholdMillis = slowOperationThresholdMillis;
+    }
+
+    /**
+     * Only log one in this many slow operations (defaults to 1, ie all of them).
+     *
+     * @param slowOperationSampleRate
+     */
+    public void setSlowOperationSampleRate(int slowOperationSampleRate) {
+        _slowOperationSampleRate = slowOperationSampleRate;
+    }
+
+    /**
+     * Never log more than this many slow operations per second (defaults to 10).
+     *
+     * @param maxSlowOperationsPerSecond
+     */
+    public void setMaxSlowOperationsPerSecond(int maxSlowOperationsPerSecond) {
+        _maxSlowOperationsPerSecond = maxSlowOperationsPerSecond;
+    }
+
+    /**
+     * Never run more than this many operations on this collection at once; 0 (the default) means no limit.
+     *
+     * @param maxConcurrentOperations
+     */
+    public void setMaxConcurrentOperations(int maxConcurrentOperations) {
+        _maxConcurrentOperations = maxConcurrentOperations;
+    }
+
+    /**
+     * When the collection is at its limit, let this many operations wait for a turn; any more are rejected.
+     *
+     * @param maxQueuedOperations
+     */
+    public void setMaxQueuedOperations(int maxQueuedOperations) {
+        _maxQueuedOperations = maxQueuedOperations;
+    }
+
+    /**
+     * Reject an operation that has waited this long for a turn.
+     *
+     * @param maxQueueWaitMillis
+     */
+    public void setMaxQueueWaitMillis(long maxQueueWaitMillis) {
+        _maxQueueWaitMillis = maxQueueWaitMillis;
+    }
+
+    /**
+     * Where reads from this collection should go, if the connector routes reads
+     * across a replica set. Defaults to the connector's read preference. This
+     * can't be set if the connector has multiple hosts but no read preference,
+     * because then the driver sends every read to a secondary anyway.
+     *
+     * @param readPreference
+     */
+    public void setReadPreference(ReadPreference readPreference) {
+        _readPreference = readPreference;
+    }
+
+    /**
+     * Don't read from a secondary that's further behind the primary than this; 0 (the default) means no limit.
+     *
+     * @param maxStalenessMillis
+     */
+    public void setMaxStalenessMillis(long maxStalenessMillis) {
+        _maxStalenessMillis = maxStalenessMillis;
+    }
+
+    /**
+     * Hold updates to existing documents for up to this long, so several
+     * updates to the same document are saved only once; 0 (the default)
+     * saves every update right away. Updates held this way are
+     * last-writer-wins amongst themselves, but one that conflicts with a
+     * save made some other way is dropped; see WriteBehindBuffer.
+     *
+     * @param writeBehindMillis
+     */
+    public void setWriteBehindMillis(long writeBehindMillis) {
+        _writeBehindMillis = writeBehindMillis;
+    }
+
+    /**
+     * Flush the write-behind buffer early once this many documents are waiting (defaults to 500).
+     *
+     * @param writeBehindBatchSize
+     */
+    public void setWriteBehindBatchSize(int writeBehindBatchSize) {
+        _writeBehindBatchSize = writeBehindBatchSize;
+    }
+
+    /**
+     * The most documents the write-behind buffer will hold; beyond this, updates are saved right away (defaults to 10000).
+     *
+     * @param maxWriteBehindPending
+     */
+    public void setMaxWriteBehindPending(int maxWriteBehindPending) {
+        _maxWriteBehindPending = maxWriteBehindPending;
+    }
+
+    /**
+     * Tell this listener about buffered updates that were dropped because the
+     * document was saved some other way since it was loaded.
+     *
+     * @param writeBehindConflictListener
+     */
+    public void setWriteBehindConflictListener(WriteBehindConflictListener writeBehindConflictListener) {
+        _writeBehindConflictListener = writeBehindConflictListener;
+    }
+
+    /**
+     * For findOne and getCount, if the first replica set member hasn't answered
+     * within the hedge delay, send the same read to another member and take
+     * whichever answers first (defaults to false). Only reads whose read
+     * preference lets them go to a secondary are hedged, so PRIMARY reads (and
+     * reads on a connector that isn't routing reads) never are.
+     *
+     * @param hedgedReads
+     */
+    public void setHedgedReads(boolean hedgedReads) {
+        _hedgedReads = hedgedReads;
+    }
+
+    /**
+     * The hedge delay is this percentile of the read's latency on this
+     * collection, since startup or the last time its metrics were reset
+     * (defaults to 95).
+     *
+     * @param hedgePercentile
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        _hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Never hedge a read sooner than this, eg before we have any latency to go on (defaults to 5).
+     *
+     * @param minHedgeDelayMillis
+     */
+    public void setMinHedgeDelayMillis(long minHedgeDelayMillis) {
+        _minHedgeDelayMillis = minHedgeDelayMillis;
+    }
+
+    /**
+     * The most threads to run deadline calls and hedged reads on; when they're
+     * all busy, new calls are rejected (defaults to 64).
+     *
+     * @param maxCallThreads
+     */
+    public void setMaxCallThreads(int maxCallThreads) {
+        _maxCallThreads = maxCallThreads;
+    }
 	
 }
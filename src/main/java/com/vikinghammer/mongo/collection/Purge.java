@@ -0,0 +1,137 @@
+package com.vikinghammer.mongo.collection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.bson.BSON;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+import com.vikinghammer.mongo.codec.BinaryIO;
+import com.vikinghammer.mongo.profile.QueryShape;
+
+/**
+ * Removes every document matching a query, a batch at a time, no faster than
+ * a given rate, so a large cleanup doesn't swamp the primary. Each batch
+ * reads only the _ids of the next batchSize matching documents, then removes
+ * them with a single $in.
+ *
+ * Start one with MongoCollection.purge(); this is the handle for watching or
+ * cancelling it.
+ *
+ * @author Sean Schulte
+ */
+public class Purge implements Runnable {
+
+	private Logger _log = LoggerFactory.getLogger(getClass());
+
+    private final MongoCollection _collection;
+    private final DBObject _query;
+    private final int _batchSize;
+    private final int _maxDocumentsPerSecond;
+
+    private final AtomicLong _removed = new AtomicLong();
+    private final CountDownLatch _done = new CountDownLatch(1);
+    private volatile boolean _cancelled;
+    private volatile RuntimeException _failure;
+
+    /**
+     * @param collection - the collection to remove from
+     * @param query - the documents to remove (we take a copy, since the caller is free to change it while we run)
+     * @param batchSize - how many documents to remove at a time
+     * @param maxDocumentsPerSecond - the fastest to remove them (0 for no limit)
+     */
+    Purge(MongoCollection collection, DBObject query, int batchSize, int maxDocumentsPerSecond) {
+        super();
+        _collection = collection;
+        _query = (query == null) ? new BasicDBObject() : BinaryIO.decode(BSON.encode(query));
+        _batchSize = batchSize;
+        _maxDocumentsPerSecond = maxDocumentsPerSecond;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!_cancelled) {
+                long start = System.currentTimeMillis();
+
+                List<Object> ids = _nextBatch();
+                if (ids.isEmpty()) {
+                    break;
+                }
+                // some of them may have been removed by someone else since we read them
+                _removed.addAndGet(_collection.remove(new BasicDBObject("_id", new BasicDBObject("$in", ids)), WriteConcern.SAFE).getN());
+
+                if (_maxDocumentsPerSecond > 0) {
+                    long pause = (ids.size() * 1000L / _maxDocumentsPerSecond) - (System.currentTimeMillis() - start);
+                    if (pause > 0) {
+                        Thread.sleep(pause);
+                    }
+                }
+            }
+            // log the shape, not the query; its values may be anything from ids to email addresses
+            _log.info(String.format("Purge of %s from %s %s after removing %d documents", QueryShape.of(_query), _collection.getCollectionName(), _cancelled ? "cancelled" : "finished", _removed.get()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            _failure = e;
+            _log.warn(String.format("Purge of %s from %s failed after removing %d documents", QueryShape.of(_query), _collection.getCollectionName(), _removed.get()), e);
+        } finally {
+            _done.countDown();
+        }
+    }
+
+    private List<Object> _nextBatch() {
+        List<Object> ids = new ArrayList<Object>(_batchSize);
+        DBCursor cursor = _collection.getDBCollection().find(_query, new BasicDBObject("_id", 1)).limit(_batchSize);
+        try {
+            while (cursor.hasNext()) {
+                ids.add(cursor.next().get("_id"));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Stop after the current batch.
+     */
+    public void cancel() {
+        _cancelled = true;
+    }
+
+    /**
+     * Wait for the purge to finish.
+     *
+     * @param timeoutMillis - the longest to wait
+     * @return true if it's finished
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        return _done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isDone() {
+        return _done.getCount() == 0;
+    }
+
+    public long getRemoved() {
+        return _removed.get();
+    }
+
+    /**
+     * @return what made the purge stop early, or null if it didn't fail
+     */
+    public RuntimeException getFailure() {
+        return _failure;
+    }
+
+}
@@ -0,0 +1,871 @@
+package com.vikinghammer.mongo.collection;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.util.Assert;
+
+import org.bson.types.ObjectId;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+
+import com.vikinghammer.mongo.db.MongoDatabaseConnector;
+import com.vikinghammer.mongo.metrics.MetricsRegistry;
+import com.vikinghammer.mongo.model.DBPage;
+import com.vikinghammer.mongo.model.Query;
+import com.vikinghammer.mongo.profile.QueryProfiler;
+
+/**
+ * A collection that's too big for a single database, spread across several
+ * MongoDatabaseConnectors by consistent hashing of a shard key (the _id, by
+ * default).
+ *
+ * Saves and lookups by shard key go to the one shard that owns the key; any
+ * other query is sent to every shard at once, and the results are merged
+ * (respecting the sort, and then the paging, for a Query).
+ *
+ * Adding a shard moves the documents that now belong to it in the background.
+ * Until that's finished, lookups that miss on the new owner fall back to the
+ * old one, an update to a document that hasn't moved yet moves it first, and
+ * results gathered from every shard are de-duplicated by _id. Rebalancing
+ * state isn't persisted; see addShard() before restarting mid-rebalance.
+ *
+ * Each shard is a MongoCollection of its own, configured with the metrics
+ * registry, query profiler, slow-operation log and bulkhead settings given
+ * here; the bulkhead limits apply to each shard separately. Per-collection
+ * read preferences, write-behind and hedged reads aren't supported (a read
+ * preference set on a shard's connector still applies).
+ *
+ * Like MongoCollection, this is intended to be configured with Spring, and the
+ * init() method MUST be called.
+ *
+ * @author Sean Schulte
+ */
+public class ShardedMongoCollection {
+
+	private Logger _log = LoggerFactory.getLogger(getClass());
+
+    private List<MongoDatabaseConnector> _databaseConnectors;
+    private String _collectionName;
+    private List<String> _indices;
+    private String _shardKey;
+    private int _virtualNodes;
+    private int _rebalanceBatchSize;
+    private long _rebalancePauseMillis;
+    private long _rebalanceRetryMillis;
+    private MetricsRegistry _metricsRegistry;
+    private QueryProfiler _queryProfiler;
+    private long _slowOperationThresholdMillis;
+    private int _slowOperationSampleRate;
+    private int _maxSlowOperationsPerSecond;
+    private int _maxConcurrentOperations;
+    private int _maxQueuedOperations;
+    private long _maxQueueWaitMillis;
+
+    private volatile ConsistentHashRing<MongoCollection> _ring;
+    private volatile ConsistentHashRing<MongoCollection> _previousRing;
+    private ExecutorService _scatterExecutor;
+    private Thread _rebalancer;
+    // moves hold the read lock, so a remove() waits for the moves in progress, and the moves after it see what it removed
+    private final ReadWriteLock _moveLock = new ReentrantReadWriteLock();
+
+    public ShardedMongoCollection() {
+        super();
+        _shardKey = "_id";
+        _virtualNodes = 128;
+        _rebalanceBatchSize = 500;
+        _rebalancePauseMillis = 100;
+        _rebalanceRetryMillis = 10000;
+        _slowOperationSampleRate = 1;
+        _maxSlowOperationsPerSecond = 10;
+    }
+
+    /**
+     * Check that we have the information we need (the database connectors and
+     * the collection name), and set up a MongoCollection on each of them.
+     */
+    public void init() {
+        Assert.notEmpty(_databaseConnectors, "Must specify at least one database connector");
+        Assert.notNull(_collectionName, "Must specify a collection name");
+
+        ConsistentHashRing<MongoCollection> ring = new ConsistentHashRing<MongoCollection>(_virtualNodes);
+        for (MongoDatabaseConnector connector : _databaseConnectors) {
+            ring = ring.with(_createShard(connector), _shardName(connector));
+        }
+        _ring = ring;
+
+        _scatterExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, String.format("mongo-shard-%s", _collectionName));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stop any rebalancing that's in progress, the threads we use to query
+     * the shards, and the shards themselves.
+     */
+    public void shutdown() {
+        if (_rebalancer != null) {
+            _rebalancer.interrupt();
+        }
+        if (_scatterExecutor != null) {
+            _scatterExecutor.shutdownNow();
+        }
+        if (_ring != null) {
+            for (MongoCollection shard : _shards()) {
+                shard.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Save a single object to the shard that owns it. New objects that are
+     * sharded by _id are given an id here, so we know where to put them.
+     *
+     * @param object - the record to be saved
+     */
+    public void save(DBObject object) {
+        if ("_id".equals(_shardKey) && object.get("_id") == null) {
+            object.put("_id", new ObjectId());
+        }
+        Object key = object.get(_shardKey);
+        Assert.notNull(key, String.format("Must specify the shard key %s", _shardKey));
+
+        if (object.get("version") != null) {
+            _moveIfNecessary(key, object.get("_id"));
+        }
+        _ring.get(key).save(object);
+    }
+
+    /**
+     * Get a single record by its id.
+     *
+     * @param id - the _id of the record
+     * @return the record, or null if it isn't found
+     */
+    public DBObject getById(Object id) {
+        return findOne(new BasicDBObject("_id", id));
+    }
+
+    /**
+     * Get a single record. If the query specifies the shard key, only the
+     * shard that owns it is asked; otherwise every shard is.
+     *
+     * @param query - a standard Mongo query
+     * @return the first record matching the query, or null if none are found
+     */
+    public DBObject findOne(final DBObject query) {
+        Object key = _routingKey(query);
+        if (key != null) {
+            MongoCollection owner = _ring.get(key);
+            DBObject doc = owner.findOne(query);
+            ConsistentHashRing<MongoCollection> previousRing = _previousRing;
+            if (doc == null && previousRing != null && previousRing.get(key) != owner) {
+                // it may not have been moved to its new shard yet
+                doc = previousRing.get(key).findOne(query);
+            }
+            return doc;
+        }
+
+        for (DBObject doc : _scatter(new ShardCall<DBObject>() {
+            @Override
+            public DBObject call(MongoCollection shard) {
+                return shard.findOne(query);
+            }
+        })) {
+            if (doc != null) {
+                return doc;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of records across every shard that match the given query.
+     *
+     * @param query - a standard Mongo query
+     * @return the number of records matching the query
+     */
+    public long getCount(final DBObject query) {
+        long count = 0;
+        for (Long shardCount : _scatter(new ShardCall<Long>() {
+            @Override
+            public Long call(MongoCollection shard) {
+                return shard.getCount(query);
+            }
+        })) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    /**
+     * Get all the records matching the given query, from every shard.
+     *
+     * @param query - a standard Mongo query
+     * @return all the records matching the query
+     */
+    public Iterable<DBObject> find(DBObject query) {
+        return find(query, null);
+    }
+
+    /**
+     * Get all the records matching the given query, from every shard, in
+     * order. Each shard sorts its own records, and we merge them as they're
+     * read, so the results are never all in memory at once.
+     *
+     * @param query - a standard Mongo query
+     * @param sort - how to sort the records, or null
+     * @return all the records matching the query
+     */
+    public Iterable<DBObject> find(DBObject query, DBObject sort) {
+        final List<DBCursor> cursors = new ArrayList<DBCursor>();
+        for (MongoCollection shard : _shards()) {
+            DBCursor cursor = shard.find(query);
+            if (sort != null) {
+                cursor.sort(sort);
+            }
+            cursors.add(cursor);
+        }
+        final Comparator<DBObject> comparator = (sort == null) ? null : new SortComparator(sort);
+        final boolean deduplicate = (_previousRing != null);
+        return new Iterable<DBObject>() {
+            @Override
+            public Iterator<DBObject> iterator() {
+                // each iteration needs its own cursors, since a cursor can only be read once
+                List<DBCursor> copies = new ArrayList<DBCursor>();
+                for (DBCursor cursor : cursors) {
+                    copies.add(cursor.copy());
+                }
+                return new MergingIterator(copies, comparator, deduplicate);
+            }
+        };
+    }
+
+    /**
+     * Make a paginated query across every shard. Each shard is asked for
+     * enough records to fill the page on its own (skip + limit, sorted), then
+     * we merge those, and skip/limit the merged records.
+     *
+     * @param query - a mongo-util query that contains a MongoDB query object and also specifies the page size/number
+     * @return DBPage describing the total number of items, with the records on the requested page
+     */
+    public DBPage find(final Query query) {
+        final int wanted = query.getSkip() + query.getLimit();
+        final DBObject sort = query.getSort();
+
+        List<List<DBObject>> shardResults = _scatter(new ShardCall<List<DBObject>>() {
+            @Override
+            public List<DBObject> call(MongoCollection shard) {
+                DBCursor cursor = shard.find(query.getQuery(), query.getReadPreference()).limit(wanted);
+                if (!sort.keySet().isEmpty()) {
+                    cursor.sort(sort);
+                }
+                return cursor.toArray();
+            }
+        });
+
+        List<Iterator<DBObject>> iterators = new ArrayList<Iterator<DBObject>>();
+        for (List<DBObject> results : shardResults) {
+            iterators.add(results.iterator());
+        }
+        Comparator<DBObject> comparator = sort.keySet().isEmpty() ? null : new SortComparator(sort);
+        Iterator<DBObject> merged = new MergingIterator(iterators, comparator, _previousRing != null);
+
+        List<DBObject> results = new ArrayList<DBObject>();
+        for (int i = 0; merged.hasNext() && i < wanted; i++) {
+            DBObject doc = merged.next();
+            if (i >= query.getSkip()) {
+                results.add(doc);
+            }
+        }
+
+        DBPage page = new DBPage();
+        page.setResults(results);
+        page.setTotalItems(getCount(query.getQuery()));
+        page.setPageNumber(query.getPageNumber());
+        page.setPageSize(query.getPageSize());
+        return page;
+    }
+
+    /**
+     * Remove all the records that match the given query, from every shard.
+     * While we're rebalancing, this waits for the records being moved right
+     * now to get where they're going, so none of them are copied back after
+     * they've been removed.
+     *
+     * @param query - a standard Mongo query
+     */
+    public void remove(final DBObject query) {
+        _moveLock.writeLock().lock();
+        try {
+            _scatter(new ShardCall<Object>() {
+                @Override
+                public Object call(MongoCollection shard) {
+                    shard.remove(query);
+                    return null;
+                }
+            });
+        } finally {
+            _moveLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add a shard, and start moving the records that now belong to it in the
+     * background. Only one shard can be added at a time.
+     *
+     * Which records have moved is only known to this instance. If the process
+     * restarts before it finishes, and comes back configured with the new
+     * shard, records that haven't moved yet are still found by queries that
+     * go to every shard, but lookups by shard key will miss them. Restart with
+     * the old list of shards and call addShard() again instead.
+     *
+     * @param connector - the database the new shard lives in
+     */
+    public synchronized void addShard(MongoDatabaseConnector connector) {
+        if (_previousRing != null) {
+            throw new IllegalStateException("Already rebalancing; wait for it to finish before adding another shard");
+        }
+        MongoCollection shard = _createShard(connector);
+        _previousRing = _ring;
+        _ring = _ring.with(shard, _shardName(connector));
+        _startRebalancer();
+    }
+
+    /**
+     * Start moving records again, if rebalancing was stopped before it
+     * finished (ie, it was interrupted).
+     *
+     * @return true if rebalancing was resumed, false if there's nothing to resume or it's still running
+     */
+    public synchronized boolean resumeRebalancing() {
+        if (_previousRing == null || (_rebalancer != null && _rebalancer.isAlive())) {
+            return false;
+        }
+        _startRebalancer();
+        return true;
+    }
+
+    private void _startRebalancer() {
+        _rebalancer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                _rebalance();
+            }
+        }, String.format("mongo-rebalance-%s", _collectionName));
+        _rebalancer.setDaemon(true);
+        _rebalancer.start();
+    }
+
+    /**
+     * @return true if records are still being moved to a newly-added shard
+     */
+    public boolean isRebalancing() {
+        return _previousRing != null;
+    }
+
+    /**
+     * Move records until every one is on the shard that owns it. If a pass
+     * fails, log it and try again after the retry delay, so a blip on one of
+     * the shards doesn't leave us rebalancing (and unable to add another
+     * shard) forever. Being interrupted (ie, shutdown()) stops it for good;
+     * resumeRebalancing() will pick it back up.
+     */
+    private void _rebalance() {
+        long start = System.currentTimeMillis();
+        long moved = 0;
+        while (true) {
+            try {
+                moved += _rebalancePasses();
+                _previousRing = null;
+                _log.info(String.format("Rebalanced %s: moved %d record(s) in %dms", _collectionName, moved, System.currentTimeMillis() - start));
+                return;
+            } catch (InterruptedException e) {
+                _log.warn(String.format("Rebalancing %s was interrupted; call resumeRebalancing() to finish it", _collectionName));
+                return;
+            } catch (RuntimeException e) {
+                _log.error(String.format("Rebalancing %s failed; retrying in %dms", _collectionName, _rebalanceRetryMillis), e);
+            }
+            try {
+                Thread.sleep(_rebalanceRetryMillis);
+            } catch (InterruptedException e) {
+                _log.warn(String.format("Rebalancing %s was interrupted; call resumeRebalancing() to finish it", _collectionName));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Go through every record on the old shards, and move the ones that belong
+     * somewhere else now. Records can be skipped while we're moving things out
+     * from under the cursor, so we keep making passes until one moves nothing.
+     *
+     * @return the number of records moved
+     */
+    private long _rebalancePasses() throws InterruptedException {
+        long moved = 0;
+        long movedThisPass;
+        do {
+            movedThisPass = 0;
+            for (MongoCollection shard : _previousRing.getNodes()) {
+                DBObject fields = new BasicDBObject("_id", 1);
+                fields.put(_shardKey, 1);
+                DBCursor cursor = shard.getDBCollection().find(new BasicDBObject(), fields);
+                try {
+                    while (cursor.hasNext()) {
+                        DBObject doc = cursor.next();
+                        MongoCollection owner = _ring.get(doc.get(_shardKey));
+                        if (owner != shard && _move(doc.get("_id"), shard, owner)) {
+                            movedThisPass++;
+                            if (movedThisPass % _rebalanceBatchSize == 0) {
+                                // don't let the rebalancing swamp the shards
+                                Thread.sleep(_rebalancePauseMillis);
+                            }
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            moved += movedThisPass;
+        } while (movedThisPass > 0);
+        return moved;
+    }
+
+    /**
+     * If we're rebalancing and the record with the given key hasn't been moved
+     * to its new shard yet, move it now, so it can be updated there.
+     */
+    private void _moveIfNecessary(Object key, Object id) {
+        ConsistentHashRing<MongoCollection> previousRing = _previousRing;
+        if (previousRing == null) {
+            return;
+        }
+        MongoCollection previousOwner = previousRing.get(key);
+        MongoCollection owner = _ring.get(key);
+        if (previousOwner != owner) {
+            _move(id, previousOwner, owner);
+        }
+    }
+
+    /**
+     * Read the record from its old shard, copy it exactly as it is (including
+     * its version) to its new shard, then remove it from the old one, but only
+     * if it hasn't been changed in the meantime. If it has, the next pass will
+     * move it again. This all happens under the move lock, so a remove() can't
+     * delete the record between our read and our copy, and bring it back.
+     *
+     * The copy never overwrites a newer version on the new shard: it only
+     * replaces an older version, or inserts it if it isn't there. If the new
+     * shard already has this version or a newer one (it was updated there
+     * after an earlier move), the upsert hits a duplicate key, and the record
+     * counts as already moved.
+     *
+     * @return true if the record was on the old shard, false if it's gone (eg, it was removed)
+     */
+    private boolean _move(Object id, MongoCollection from, MongoCollection to) {
+        _moveLock.readLock().lock();
+        try {
+            DBObject doc = from.getDBCollection().findOne(new BasicDBObject("_id", id));
+            if (doc == null) {
+                return false;
+            }
+
+            DBObject copyQuery = new BasicDBObject("_id", id);
+            if (doc.get("version") != null) {
+                copyQuery.put("version", new BasicDBObject("$lt", doc.get("version")));
+            }
+            try {
+                to.getDBCollection().update(copyQuery, doc, true, false, WriteConcern.SAFE);
+            } catch (MongoException e) {
+                if (e.getCode() != 11000 && e.getCode() != 11001) {
+                    throw e;
+                }
+                // the new shard already has this version or a newer one
+            }
+
+            DBObject query = new BasicDBObject("_id", id);
+            query.put("version", doc.get("version"));
+            from.getDBCollection().remove(query);
+            return true;
+        } finally {
+            _moveLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the value of the shard key, if the query looks it up by equality
+     */
+    private Object _routingKey(DBObject query) {
+        if (query == null) {
+            return null;
+        }
+        Object value = query.get(_shardKey);
+        if (value == null || value instanceof DBObject) {
+            return null;
+        }
+        return value;
+    }
+
+    private List<MongoCollection> _shards() {
+        ConsistentHashRing<MongoCollection> previousRing = _previousRing;
+        List<MongoCollection> shards = new ArrayList<MongoCollection>(_ring.getNodes());
+        if (previousRing != null) {
+            for (MongoCollection shard : previousRing.getNodes()) {
+                if (!shards.contains(shard)) {
+                    shards.add(shard);
+                }
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Run the same call against every shard in parallel, and wait for all of
+     * the results.
+     */
+    private <R> List<R> _scatter(final ShardCall<R> call) {
+        List<Future<R>> futures = new ArrayList<Future<R>>();
+        for (final MongoCollection shard : _shards()) {
+            futures.add(_scatterExecutor.submit(new Callable<R>() {
+                @Override
+                public R call() {
+                    return call.call(shard);
+                }
+            }));
+        }
+
+        List<R> results = new ArrayList<R>();
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<R> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private MongoCollection _createShard(MongoDatabaseConnector connector) {
+        MongoCollection shard = new MongoCollection();
+        shard.setDatabaseConnector(connector);
+        shard.setCollectionName(_collectionName);
+        shard.setIndices(_indices);
+        shard.setMetricsRegistry(_metricsRegistry);
+        shard.setQueryProfiler(_queryProfiler);
+        shard.setSlowOperationThresholdMillis(_slowOperationThresholdMillis);
+        shard.setSlowOperationSampleRate(_slowOperationSampleRate);
+        shard.setMaxSlowOperationsPerSecond(_maxSlowOperationsPerSecond);
+        shard.setMaxConcurrentOperations(_maxConcurrentOperations);
+        shard.setMaxQueuedOperations(_maxQueuedOperations);
+        shard.setMaxQueueWaitMillis(_maxQueueWaitMillis);
+        shard.init();
+        return shard;
+    }
+
+    private static String _shardName(MongoDatabaseConnector connector) {
+        return String.format("%s/%s", connector.getHost(), connector.getDatabaseName());
+    }
+
+    /**
+     * Something to run against a single shard.
+     */
+    private interface ShardCall<R> {
+        R call(MongoCollection shard);
+    }
+
+    /**
+     * Merges several iterators that are each already in order (or, without a
+     * comparator, simply concatenates them), optionally skipping records whose
+     * _id we've already seen.
+     */
+    private static class MergingIterator implements Iterator<DBObject> {
+
+        private final PriorityQueue<Head> _heads;
+        private final List<Iterator<DBObject>> _remaining;
+        private final Set<Object> _seen;
+        private DBObject _next;
+
+        MergingIterator(List<? extends Iterator<DBObject>> iterators, final Comparator<DBObject> comparator, boolean deduplicate) {
+            _remaining = new ArrayList<Iterator<DBObject>>(iterators);
+            _seen = deduplicate ? new HashSet<Object>() : null;
+            _heads = new PriorityQueue<Head>(Math.max(1, iterators.size()), new Comparator<Head>() {
+                @Override
+                public int compare(Head a, Head b) {
+                    if (comparator != null) {
+                        int result = comparator.compare(a.doc, b.doc);
+                        if (result != 0) {
+                            return result;
+                        }
+                    }
+                    return a.order - b.order;
+                }
+            });
+            if (comparator != null) {
+                for (int i = 0; i < _remaining.size(); i++) {
+                    _advance(_remaining.get(i), i);
+                }
+                _remaining.clear();
+            }
+        }
+
+        private void _advance(Iterator<DBObject> iterator, int order) {
+            if (iterator.hasNext()) {
+                _heads.add(new Head(iterator.next(), iterator, order));
+            }
+        }
+
+        private DBObject _take() {
+            while (_heads.isEmpty() && !_remaining.isEmpty()) {
+                // no comparator: just work through each iterator in turn
+                _advance(_remaining.remove(0), 0);
+            }
+            Head head = _heads.poll();
+            if (head == null) {
+                return null;
+            }
+            _advance(head.iterator, head.order);
+            return head.doc;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (_next == null) {
+                DBObject doc = _take();
+                if (doc == null) {
+                    return false;
+                }
+                if (_seen == null || _seen.add(doc.get("_id"))) {
+                    _next = doc;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public DBObject next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            DBObject doc = _next;
+            _next = null;
+            return doc;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private static class Head {
+            final DBObject doc;
+            final Iterator<DBObject> iterator;
+            final int order;
+
+            Head(DBObject doc, Iterator<DBObject> iterator, int order) {
+                this.doc = doc;
+                this.iterator = iterator;
+                this.order = order;
+            }
+        }
+
+    }
+
+    /**
+     * Orders documents the same way Mongo would for a sort object like
+     * {name: 1, age: -1}, for the types that show up in sort keys.
+     */
+    private static class SortComparator implements Comparator<DBObject> {
+
+        private final DBObject _sort;
+
+        SortComparator(DBObject sort) {
+            _sort = sort;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(DBObject a, DBObject b) {
+            for (String key : _sort.keySet()) {
+                int direction = ((Number)_sort.get(key)).intValue() < 0 ? -1 : 1;
+                Object left = a.get(key);
+                Object right = b.get(key);
+
+                int result;
+                if (left == null || right == null) {
+                    result = (left == null ? 0 : 1) - (right == null ? 0 : 1);
+                } else if (left instanceof Number && right instanceof Number) {
+                    result = Double.compare(((Number)left).doubleValue(), ((Number)right).doubleValue());
+                } else if (left instanceof Comparable && left.getClass().equals(right.getClass())) {
+                    result = ((Comparable<Object>)left).compareTo(right);
+                } else {
+                    result = left.toString().compareTo(right.toString());
+                }
+
+                if (result != 0) {
+                    return result * direction;
+                }
+            }
+            return 0;
+        }
+
+    }
+
+    public void setDatabaseConnectors(List<MongoDatabaseConnector> databaseConnectors) {
+        _databaseConnectors = databaseConnectors;
+    }
+
+    public void setCollectionName(String collectionName) {
+        _collectionName = collectionName;
+    }
+
+    public void setIndices(List<String> indices) {
+        _indices = indices;
+    }
+
+    /**
+     * The field that decides which shard a record lives on (defaults to _id).
+     * Records must always have a value for it, and it must never change.
+     *
+     * @param shardKey
+     */
+    public void setShardKey(String shardKey) {
+        _shardKey = shardKey;
+    }
+
+    /**
+     * How many times each shard is placed on the hash ring (defaults to 128).
+     * This must stay the same across restarts, or records will be looked for
+     * on the wrong shard.
+     *
+     * @param virtualNodes
+     */
+    public void setVirtualNodes(int virtualNodes) {
+        _virtualNodes = virtualNodes;
+    }
+
+    /**
+     * While rebalancing, pause after moving this many records (defaults to 500).
+     *
+     * @param rebalanceBatchSize
+     */
+    public void setRebalanceBatchSize(int rebalanceBatchSize) {
+        _rebalanceBatchSize = rebalanceBatchSize;
+    }
+
+    /**
+     * While rebalancing, pause this long after each batch (defaults to 100).
+     *
+     * @param rebalancePauseMillis
+     */
+    public void setRebalancePauseMillis(long rebalancePauseMillis) {
+        _rebalancePauseMillis = rebalancePauseMillis;
+    }
+
+    /**
+     * If rebalancing fails, try again after this long (defaults to 10000).
+     *
+     * @param rebalanceRetryMillis
+     */
+    public void setRebalanceRetryMillis(long rebalanceRetryMillis) {
+        _rebalanceRetryMillis = rebalanceRetryMillis;
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        _metricsRegistry = metricsRegistry;
+    }
+
+    public void setQueryProfiler(QueryProfiler queryProfiler) {
+        _queryProfiler = queryProfiler;
+    }
+
+    /**
+     * Operations on a shard that take at least this long are logged; 0 (the default) disables the slow-operation log.
+     *
+     * @param slowOperationThresholdMillis
+     */
+    public void setSlowOperationThresholdMillis(long slowOperationThresholdMillis) {
+        _slowOperationThresholdMillis = slowOperationThresholdMillis;
+    }
+
+    /**
+     * Only log one in this many slow operations (defaults to 1, ie all of them).
+     *
+     * @param slowOperationSampleRate
+     */
+    public void setSlowOperationSampleRate(int slowOperationSampleRate) {
+        _slowOperationSampleRate = slowOperationSampleRate;
+    }
+
+    /**
+     * Never log more than this many slow operations per second, per shard (defaults to 10).
+     *
+     * @param maxSlowOperationsPerSecond
+     */
+    public void setMaxSlowOperationsPerSecond(int maxSlowOperationsPerSecond) {
+        _maxSlowOperationsPerSecond = maxSlowOperationsPerSecond;
+    }
+
+    /**
+     * Never run more than this many operations on each shard at once; 0 (the default) means no limit.
+     *
+     * @param maxConcurrentOperations
+     */
+    public void setMaxConcurrentOperations(int maxConcurrentOperations) {
+        _maxConcurrentOperations = maxConcurrentOperations;
+    }
+
+    /**
+     * When a shard is at its limit, let this many operations wait for a turn; any more are rejected.
+     *
+     * @param maxQueuedOperations
+     */
+    public void setMaxQueuedOperations(int maxQueuedOperations) {
+        _maxQueuedOperations = maxQueuedOperations;
+    }
+
+    /**
+     * Reject an operation that has waited this long for a turn on a shard.
+     *
+     * @param maxQueueWaitMillis
+     */
+    public void setMaxQueueWaitMillis(long maxQueueWaitMillis) {
+        _maxQueueWaitMillis = maxQueueWaitMillis;
+    }
+
+}
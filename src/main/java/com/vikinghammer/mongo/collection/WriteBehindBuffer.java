@@ -0,0 +1,409 @@
+package com.vikinghammer.mongo.collection;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import com.vikinghammer.mongo.exception.VersionMismatchException;
+import com.vikinghammer.mongo.metrics.LatencyHistogram;
+
+/**
+ * Holds updates to existing documents for a short while before saving them,
+ * so a document that's updated many times in quick succession (a counter, or
+ * a "last seen" time) is only saved once, with its latest contents.
+ *
+ * Pending updates are keyed by _id; a newer update to the same document
+ * replaces the pending one. Everything pending is flushed every
+ * flushIntervalMillis, or sooner once flushBatchSize documents are waiting.
+ * If maxPending documents are already waiting, further documents aren't
+ * buffered, and the caller should save them right away.
+ *
+ * If a save fails (other than on the version check), the update goes back in
+ * the buffer, unless a newer one has arrived, and flushing backs off: it
+ * waits twice as long after each consecutive failure, up to a minute.
+ *
+ * Because the save happens later, the caller's model keeps the version it
+ * was loaded with, and the version check can't be reported back to it.
+ * Updates that went through this buffer are last-writer-wins amongst
+ * themselves: if a flush finds the document's version has moved on, but the
+ * last save of it was one of ours (eg, the same model was stored again after
+ * a flush, or it was loaded from a pending update that's since been saved),
+ * the update is rebased onto that version and saved. If someone else has
+ * saved the document in the meantime, the buffered update is dropped rather
+ * than saved over theirs (which would silently undo their changes to every
+ * other field); it's logged, counted as a conflict, and handed to the
+ * conflict listener, if there is one, so the caller can retry it.
+ *
+ * MongoCollection creates one of these when its writeBehindMillis is set.
+ *
+ * @author Sean Schulte
+ */
+public class WriteBehindBuffer implements WriteBehindBufferMBean {
+
+	private Logger _log = LoggerFactory.getLogger(getClass());
+
+    private final MongoCollection _collection;
+    private final long _flushIntervalMillis;
+    private final int _flushBatchSize;
+    private final int _maxPending;
+
+    private final ConcurrentMap<Object, DBObject> _pending;
+    private final AtomicBoolean _flushRequested = new AtomicBoolean();
+    private final AtomicLong _writes = new AtomicLong();
+    private final AtomicLong _coalesced = new AtomicLong();
+    private final AtomicLong _flushed = new AtomicLong();
+    private final AtomicLong _writeThrough = new AtomicLong();
+    private final AtomicLong _rebased = new AtomicLong();
+    private final AtomicLong _conflicts = new AtomicLong();
+    private final AtomicLong _failed = new AtomicLong();
+    private final LatencyHistogram _flushLatency = new LatencyHistogram();
+
+    // the version of each document we last saved, most recent last; only touched while flushing
+    private final Map<Object, Object> _savedVersions;
+
+    private ScheduledExecutorService _flusher;
+    private WriteBehindConflictListener _conflictListener;
+    private volatile boolean _shutdown;
+    private int _consecutiveFailures;
+    private long _retryAtMillis;
+
+    /**
+     * @param collection - the collection to save to
+     * @param flushIntervalMillis - the longest an update waits before it's saved
+     * @param flushBatchSize - flush early once this many documents are waiting; each batch is timed separately
+     * @param maxPending - the most documents that can be waiting at once
+     */
+    public WriteBehindBuffer(MongoCollection collection, long flushIntervalMillis, int flushBatchSize, int maxPending) {
+        super();
+        _collection = collection;
+        _flushIntervalMillis = flushIntervalMillis;
+        _flushBatchSize = flushBatchSize;
+        _maxPending = maxPending;
+        _pending = new ConcurrentHashMap<Object, DBObject>();
+        _savedVersions = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                // we only need to remember the documents that are likely to be updated again soon
+                return size() > _maxPending;
+            }
+        };
+    }
+
+    /**
+     * Tell this listener about the updates that are dropped because of a conflict.
+     *
+     * @param conflictListener
+     */
+    public void setConflictListener(WriteBehindConflictListener conflictListener) {
+        _conflictListener = conflictListener;
+    }
+
+    /**
+     * Start flushing in the background.
+     */
+    public void start() {
+        _flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, String.format("mongo-write-behind-%s", _collection.getCollectionName()));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, _flushIntervalMillis, _flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background flushing, and save everything that's still pending.
+     * Once this is called, write() stops buffering, so callers save directly.
+     */
+    public void shutdown() {
+        _shutdown = true;
+        if (_flusher != null) {
+            _flusher.shutdown();
+            try {
+                _flusher.awaitTermination(_flushIntervalMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            // one last try, whether or not we're backing off
+            _retryAtMillis = 0;
+        }
+        flush();
+    }
+
+    /**
+     * Buffer an update to an existing document.
+     *
+     * @param doc - the document to save; it must have an _id and a version
+     * @return true if the update was buffered, false if the caller needs to save it (it's a new document, the buffer is full, or it's been shut down)
+     */
+    public boolean write(DBObject doc) {
+        Object id = doc.get("_id");
+        if (id == null || doc.get("version") == null) {
+            return false;
+        }
+        if (_shutdown) {
+            _writeThrough.incrementAndGet();
+            return false;
+        }
+
+        if (_pending.replace(id, doc) != null) {
+            if (_shutdown && _pending.remove(id, doc)) {
+                _writeThrough.incrementAndGet();
+                return false;
+            }
+            _writes.incrementAndGet();
+            _coalesced.incrementAndGet();
+            return true;
+        }
+        if (_pending.size() >= _maxPending) {
+            _writeThrough.incrementAndGet();
+            return false;
+        }
+        if (_pending.put(id, doc) != null) {
+            _coalesced.incrementAndGet();
+        }
+        _writes.incrementAndGet();
+
+        if (_shutdown && _pending.remove(id, doc)) {
+            // we were shut down while buffering it, and the last flush may already have run
+            _writeThrough.incrementAndGet();
+            return false;
+        }
+
+        if (_pending.size() >= _flushBatchSize && _flusher != null && _flushRequested.compareAndSet(false, true)) {
+            try {
+                _flusher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shutting down; the last flush will save it
+                _flushRequested.set(false);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param id - the _id of a document
+     * @return the update to the document that hasn't been saved yet, or null if there isn't one
+     */
+    public DBObject getPending(Object id) {
+        return _pending.get(id);
+    }
+
+    /**
+     * Forget any pending update to a document, eg because it's being removed.
+     *
+     * @param id - the _id of the document
+     */
+    public void discard(Object id) {
+        _pending.remove(id);
+    }
+
+    /**
+     * Save everything that's pending, in batches. If we're backing off after
+     * a failure, this does nothing until it's time to try again; if a save
+     * fails, it stops, and the rest waits for the next try.
+     */
+    @Override
+    public synchronized void flush() {
+        _flushRequested.set(false);
+        if (System.currentTimeMillis() < _retryAtMillis) {
+            return;
+        }
+        while (!_pending.isEmpty()) {
+            List<DBObject> batch = new ArrayList<DBObject>(_flushBatchSize);
+            for (Object id : _pending.keySet()) {
+                DBObject doc = _pending.remove(id);
+                if (doc != null) {
+                    batch.add(doc);
+                }
+                if (batch.size() >= _flushBatchSize) {
+                    break;
+                }
+            }
+
+            long start = System.nanoTime();
+            boolean failed = false;
+            for (DBObject doc : batch) {
+                if (failed) {
+                    _requeue(doc);
+                } else if (!_flush(doc)) {
+                    failed = true;
+                }
+            }
+            _flushLatency.recordNanos(System.nanoTime() - start);
+
+            if (failed) {
+                _consecutiveFailures++;
+                long backoffMillis = Math.min(60000, _flushIntervalMillis << Math.min(_consecutiveFailures, 16));
+                _retryAtMillis = System.currentTimeMillis() + backoffMillis;
+                return;
+            }
+            _consecutiveFailures = 0;
+        }
+    }
+
+    /**
+     * Put an update we couldn't save back in the buffer, unless a newer
+     * update to the same document has been buffered since.
+     */
+    private void _requeue(DBObject doc) {
+        _pending.putIfAbsent(doc.get("_id"), doc);
+    }
+
+    /**
+     * Save one document. If the version check fails because of one of our own
+     * saves, rebase the update onto it and save it again; if someone else
+     * saved it since it was loaded, drop the update and count it as a conflict.
+     *
+     * @return false if the save failed and the update was put back in the buffer
+     */
+    private boolean _flush(DBObject doc) {
+        Object id = doc.get("_id");
+        Object version = doc.get("version");
+        try {
+            try {
+                _collection.save(doc);
+            } catch (VersionMismatchException e) {
+                if (!_rebase(doc)) {
+                    throw e;
+                }
+                _collection.save(doc);
+                _rebased.incrementAndGet();
+            }
+            _savedVersions.put(id, doc.get("version"));
+            _flushed.incrementAndGet();
+            return true;
+        } catch (VersionMismatchException e) {
+            doc.put("version", version);
+            _conflicts.incrementAndGet();
+            _log.warn(String.format("Dropping write-behind update to %s (version %s) in %s, which was changed or removed since it was loaded", id, version, _collection.getCollectionName()));
+            if (_conflictListener != null) {
+                try {
+                    _conflictListener.onConflict(doc, e);
+                } catch (RuntimeException listenerError) {
+                    _log.warn(String.format("Write-behind conflict listener failed for %s in %s", id, _collection.getCollectionName()), listenerError);
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            _failed.incrementAndGet();
+            _log.warn(String.format("Unable to flush write-behind update to %s (version %s) in %s; will retry", id, version, _collection.getCollectionName()), e);
+            // save() bumps the version before it tries, so put back the one it was loaded with
+            doc.put("version", version);
+            _requeue(doc);
+            return false;
+        }
+    }
+
+    /**
+     * If the document's current version is the one we last saved, point the
+     * update at that version, so it replaces our own save.
+     *
+     * @return true if the update was rebased, false if someone else saved the document (or removed it)
+     */
+    private boolean _rebase(DBObject doc) {
+        Object id = doc.get("_id");
+        Object savedVersion = _savedVersions.get(id);
+        if (savedVersion == null) {
+            return false;
+        }
+        DBObject current = _collection.getDBCollection().findOne(new BasicDBObject("_id", id), new BasicDBObject("version", 1));
+        if (current == null || !savedVersion.equals(current.get("version"))) {
+            return false;
+        }
+        doc.put("version", savedVersion);
+        return true;
+    }
+
+    @Override
+    public int getPending() {
+        return _pending.size();
+    }
+
+    @Override
+    public long getWrites() {
+        return _writes.get();
+    }
+
+    @Override
+    public long getCoalesced() {
+        return _coalesced.get();
+    }
+
+    @Override
+    public long getFlushed() {
+        return _flushed.get();
+    }
+
+    @Override
+    public long getWriteThrough() {
+        return _writeThrough.get();
+    }
+
+    @Override
+    public long getRebased() {
+        return _rebased.get();
+    }
+
+    @Override
+    public long getConflicts() {
+        return _conflicts.get();
+    }
+
+    @Override
+    public long getFailed() {
+        return _failed.get();
+    }
+
+    /**
+     * @return how many updates were buffered for each document actually saved
+     */
+    @Override
+    public double getCoalescingRatio() {
+        long flushed = _flushed.get();
+        return flushed == 0 ? 0 : (double)_writes.get() / flushed;
+    }
+
+    @Override
+    public double getMeanFlushMillis() {
+        return _flushLatency.getMeanMillis();
+    }
+
+    @Override
+    public double getP99FlushMillis() {
+        return _flushLatency.getPercentileMillis(99);
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.vikinghammer.mongo.collection;
+
+/**
+ * The JMX view of a collection's write-behind buffer.
+ *
+ * @author Sean Schulte
+ */
+public interface WriteBehindBufferMBean {
+
+    public int getPending();
+
+    public long getWrites();
+
+    public long getCoalesced();
+
+    public long getFlushed();
+
+    public long getWriteThrough();
+
+    public long getRebased();
+
+    public long getConflicts();
+
+    public long getFailed();
+
+    public double getCoalescingRatio();
+
+    public double getMeanFlushMillis();
+
+    public double getP99FlushMillis();
+
+    public void flush();
+
+}
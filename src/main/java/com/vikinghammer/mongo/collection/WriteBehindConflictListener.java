@@ -0,0 +1,19 @@
+package com.vikinghammer.mongo.collection;
+
+import com.mongodb.DBObject;
+
+import com.vikinghammer.mongo.exception.VersionMismatchException;
+
+/**
+ * Told about buffered updates that a WriteBehindBuffer dropped because
+ * someone else saved the document since it was loaded. It's called on the
+ * flushing thread, so it shouldn't take long; to retry the update, load the
+ * document again, apply the change, and store it.
+ *
+ * @author Sean Schulte
+ */
+public interface WriteBehindConflictListener {
+
+    public void onConflict(DBObject doc, VersionMismatchException error);
+
+}
@@ -1,9 +1,22 @@
 package com.vikinghammer.mongo.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.util.Assert;
+
+import com.vikinghammer.mongo.async.AsyncExecutor;
 import com.vikinghammer.mongo.collection.MongoCollection;
+import com.vikinghammer.mongo.collection.Purge;
+import com.vikinghammer.mongo.collection.WriteBehindBuffer;
 import com.vikinghammer.mongo.factory.ModelFactory;
 import com.vikinghammer.mongo.model.MongoModel;
-import com.vikinghammer.mongo.query.MongoQueryRunner;
+import com.vikinghammer.mongo.model.Query;
+import com.vikinghammer.mongo.query.AsyncMongoQueryRunner;
+import com.vikinghammer.mongo.query.impl.AsyncMongoQueryRunnerImpl;
 import com.vikinghammer.mongo.query.impl.MongoQueryRunnerImpl;
 
 import org.bson.types.ObjectId;
@@ -16,11 +29,15 @@ import com.mongodb.DBCursor;
  * 
  * @author sschulte
  */
-public abstract class AbstractMongoDao<T extends MongoModel> implements MongoDao<T> {
+public abstract class AbstractMongoDao<T extends MongoModel> implements MongoDao<T>, AsyncMongoDao<T> {
 
     protected MongoCollection _collection;
     protected ModelFactory<T> _modelFactory;
-    protected MongoQueryRunner<T> _queryRunner;
+    // the implementation rather than MongoQueryRunner, for the methods that aren't part of the interface (like page)
+    protected MongoQueryRunnerImpl<T> _queryRunner;
+    protected AsyncExecutor _asyncExecutor;
+    protected int _deleteBatchSize = 500;
+    protected int _maxPurgePerSecond = 1000;
 
     public AbstractMongoDao(
         MongoCollection collection,
@@ -38,12 +55,28 @@ public abstract class AbstractMongoDao<T extends MongoModel> implements MongoDao
         DBObject query = new BasicDBObject();
         query.put("_id", new ObjectId(id));
 
+        // an update that hasn't been written yet is newer than what's in the database
+        WriteBehindBuffer writeBehindBuffer = _collection.getWriteBehindBuffer();
+        if (writeBehindBuffer != null) {
+            DBObject pending = writeBehindBuffer.getPending(query.get("_id"));
+            if (pending != null) {
+                return _modelFactory.build(pending);
+            }
+        }
+
         return _queryRunner.one(query);
     }
 
     @Override
     public void store(T model) {
         DBObject doc = _modelFactory.getDBObject(model);
+
+        // if the collection buffers updates, the update is saved later and the model keeps its version; the buffer rebases stores of it onto its own saves
+        WriteBehindBuffer writeBehindBuffer = _collection.getWriteBehindBuffer();
+        if (writeBehindBuffer != null && writeBehindBuffer.write(doc)) {
+            return;
+        }
+
         _collection.save(doc);
         _modelFactory.mergeIdAndVersionIntoModel(model, doc);
     }
@@ -53,7 +86,129 @@ public abstract class AbstractMongoDao<T extends MongoModel> implements MongoDao
         if (!model.isNew()) {
             DBObject query = new BasicDBObject();
             query.put("_id", new ObjectId(model.getId()));
+            if (_collection.getWriteBehindBuffer() != null) {
+                _collection.getWriteBehindBuffer().discard(query.get("_id"));
+            }
             _collection.remove(query);
         }
     }
+
+    /**
+     * Remove the given models, deleteBatchSize at a time. This (like deleteByIds
+     * and purge) isn't part of MongoDao, so existing implementations of it
+     * still compile.
+     */
+    public void deleteAll(Collection<T> models) {
+        List<String> ids = new ArrayList<String>(models.size());
+        for (T model : models) {
+            if (!model.isNew()) {
+                ids.add(model.getId());
+            }
+        }
+        deleteByIds(ids);
+    }
+
+    /**
+     * Remove the documents with the given ids, deleteBatchSize at a time.
+     */
+    public void deleteByIds(Collection<String> ids) {
+        WriteBehindBuffer writeBehindBuffer = _collection.getWriteBehindBuffer();
+        List<ObjectId> batch = new ArrayList<ObjectId>(Math.min(ids.size(), _deleteBatchSize));
+        for (String id : ids) {
+            ObjectId objectId = new ObjectId(id);
+            if (writeBehindBuffer != null) {
+                writeBehindBuffer.discard(objectId);
+            }
+            batch.add(objectId);
+            if (batch.size() >= _deleteBatchSize) {
+                _collection.remove(new BasicDBObject("_id", new BasicDBObject("$in", batch)));
+                batch = new ArrayList<ObjectId>(_deleteBatchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            _collection.remove(new BasicDBObject("_id", new BasicDBObject("$in", batch)));
+        }
+    }
+
+    /**
+     * Remove every document matching the query in the background,
+     * deleteBatchSize at a time and no faster than maxPurgePerSecond.
+     */
+    public Purge purge(Query query) {
+        return _collection.purge(query.getQuery(), _deleteBatchSize, _maxPurgePerSecond);
+    }
+
+    @Override
+    public CompletableFuture<T> getByIdAsync(final String id) {
+        return _asyncExecutor().submit(new Callable<T>() {
+            @Override
+            public T call() {
+                return getById(id);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<T> storeAsync(final T model) {
+        return _asyncExecutor().submit(new Callable<T>() {
+            @Override
+            public T call() {
+                store(model);
+                return model;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(final T model) {
+        return _asyncExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                delete(model);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * How many documents to remove with each $in (defaults to 500).
+     *
+     * @param deleteBatchSize
+     */
+    public void setDeleteBatchSize(int deleteBatchSize) {
+        Assert.isTrue(deleteBatchSize > 0, "The delete batch size must be positive");
+        _deleteBatchSize = deleteBatchSize;
+    }
+
+    /**
+     * The fastest a purge will remove documents (defaults to 1000 per second; 0 for no limit).
+     *
+     * @param maxPurgePerSecond
+     */
+    public void setMaxPurgePerSecond(int maxPurgePerSecond) {
+        Assert.isTrue(maxPurgePerSecond >= 0, "The purge rate can't be negative");
+        _maxPurgePerSecond = maxPurgePerSecond;
+    }
+
+    private AsyncExecutor _asyncExecutor() {
+        Assert.notNull(_asyncExecutor, "An AsyncExecutor must be set to use the async methods");
+        return _asyncExecutor;
+    }
+
+    /**
+     * Runs the queries of the current _queryRunner on the AsyncExecutor, so a
+     * subclass that replaces _queryRunner gets its queries run asynchronously too.
+     */
+    protected AsyncMongoQueryRunner<T> _asyncQueryRunner() {
+        return new AsyncMongoQueryRunnerImpl<T>(_queryRunner, _asyncExecutor());
+    }
+
+    /**
+     * The executor to run the async methods on; they can't be used without one.
+     *
+     * @param asyncExecutor
+     */
+    public void setAsyncExecutor(AsyncExecutor asyncExecutor) {
+        _asyncExecutor = asyncExecutor;
+    }
 }
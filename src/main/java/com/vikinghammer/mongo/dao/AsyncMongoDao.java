@@ -0,0 +1,20 @@
+package com.vikinghammer.mongo.dao;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.vikinghammer.mongo.model.MongoModel;
+
+/**
+ * The non-blocking counterpart of MongoDao.
+ *
+ * @author sschulte
+ */
+public interface AsyncMongoDao<T extends MongoModel> {
+
+    public CompletableFuture<T> getByIdAsync(String id);
+
+    public CompletableFuture<T> storeAsync(T model);
+
+    public CompletableFuture<Void> deleteAsync(T model);
+
+}
@@ -0,0 +1,263 @@
+package com.vikinghammer.mongo.db;
+
+import java.util.List;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mongodb.DBPort;
+import com.mongodb.DBPortPool;
+import com.mongodb.Mongo;
+import com.mongodb.MongoOptions;
+import com.mongodb.ServerAddress;
+
+import com.vikinghammer.mongo.metrics.LatencyHistogram;
+
+/**
+ * Telemetry for the connection pools behind a MongoDatabaseConnector.
+ *
+ * The driver doesn't tell us how long threads wait for a connection, so we
+ * derive it from the operations MongoCollection tells us about: an operation
+ * that starts while every connection is busy has to wait, and it gets the
+ * connection back from the next operation that finishes (the pool hands them
+ * out first come, first served). The connector periodically samples the pools
+ * themselves for how many connections are in use, without checking any out.
+ *
+ * The wait time is modeled on a single pool of connectionsPerHost connections,
+ * the one the main connection uses; reads routed to other replica set members
+ * use their own pools, so with read routing on it overstates the waits.
+ *
+ * @author Sean Schulte
+ */
+public class ConnectionPoolMetrics implements ConnectionPoolMetricsMBean {
+
+    private final Mongo _connection;
+    private final int _capacity;
+
+    private final AtomicInteger _inFlight = new AtomicInteger();
+    private final AtomicInteger _peakInFlight = new AtomicInteger();
+    private final AtomicInteger _peakInUse = new AtomicInteger();
+    private final AtomicInteger _peakWaiters = new AtomicInteger();
+    private final LatencyHistogram _wait = new LatencyHistogram();
+    // when each operation that's waiting for a connection started waiting, oldest first
+    private final Queue<Long> _queued = new ConcurrentLinkedQueue<Long>();
+    // the size of _queued, which the queue can't tell us cheaply
+    private final AtomicInteger _waiters = new AtomicInteger();
+
+    private volatile int _inUse;
+    private volatile int _available;
+    private volatile int _total;
+
+    public ConnectionPoolMetrics(Mongo connection) {
+        super();
+        _connection = connection;
+        _capacity = connection.getMongoOptions().connectionsPerHost;
+    }
+
+    void operationStarted() {
+        int inFlight = _inFlight.incrementAndGet();
+        _raise(_peakInFlight, inFlight);
+        if (_capacity > 0 && inFlight > _capacity) {
+            // every connection is busy, so this one waits for the next to be handed back
+            _queued.add(System.nanoTime());
+            _raise(_peakWaiters, _waiters.incrementAndGet());
+        } else {
+            _wait.recordNanos(0);
+        }
+    }
+
+    void operationFinished() {
+        _inFlight.decrementAndGet();
+        Long queuedAt = _queued.poll();
+        if (queuedAt != null) {
+            _waiters.decrementAndGet();
+            // the connection this operation used goes to the operation that's waited longest
+            _wait.recordNanos(System.nanoTime() - queuedAt);
+        }
+    }
+
+    /**
+     * Take a sample of each pool: how many connections are in use and
+     * available. This only reads the pools' counters; it never checks a
+     * connection out, so it can't add to the waits it's measuring.
+     */
+    void sample() {
+        int inUse = 0;
+        int available = 0;
+        int total = 0;
+        for (DBPortPool pool : _pools()) {
+            inUse += pool.inUse();
+            available += pool.available();
+            total += pool.total();
+        }
+        _inUse = inUse;
+        _available = available;
+        _total = total;
+        _raise(_peakInUse, inUse);
+    }
+
+    /**
+     * Open connections ahead of time, so the first requests after startup
+     * don't have to pay for it.
+     *
+     * @param connectionsPerPool - how many connections to open in each pool
+     * @return the number of connections we opened
+     */
+    int warmUp(int connectionsPerPool) throws IOException {
+        int opened = 0;
+        for (DBPortPool pool : _pools()) {
+            DBPort[] ports = new DBPort[connectionsPerPool];
+            try {
+                for (int i = 0; i < connectionsPerPool; i++) {
+                    ports[i] = pool.get();
+                    ports[i].ensureOpen();
+                    opened++;
+                }
+            } finally {
+                for (DBPort port : ports) {
+                    if (port != null) {
+                        pool.done(port);
+                    }
+                }
+            }
+        }
+        return opened;
+    }
+
+    private DBPortPool[] _pools() {
+        List<ServerAddress> addresses = _connection.getServerAddressList();
+        DBPortPool[] pools = new DBPortPool[addresses.size()];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = _connection.getConnector().getDBPortPool(addresses.get(i));
+        }
+        return pools;
+    }
+
+    private static void _raise(AtomicInteger peak, int value) {
+        int current = peak.get();
+        while (value > current && !peak.compareAndSet(current, value)) {
+            current = peak.get();
+        }
+    }
+
+    public LatencyHistogram getWait() {
+        return _wait;
+    }
+
+    @Override
+    public int getInUse() {
+        return _inUse;
+    }
+
+    @Override
+    public int getAvailable() {
+        return _available;
+    }
+
+    @Override
+    public int getTotal() {
+        return _total;
+    }
+
+    @Override
+    public int getInFlight() {
+        return _inFlight.get();
+    }
+
+    /**
+     * @return an estimate of the number of threads waiting for a connection:
+     *         the operations in flight beyond connectionsPerHost
+     */
+    @Override
+    public int getWaiters() {
+        return _waiters.get();
+    }
+
+    @Override
+    public int getPeakInUse() {
+        return _peakInUse.get();
+    }
+
+    @Override
+    public int getPeakInFlight() {
+        return _peakInFlight.get();
+    }
+
+    @Override
+    public int getPeakWaiters() {
+        return _peakWaiters.get();
+    }
+
+    @Override
+    public double getMeanWaitMillis() {
+        return _wait.getMeanMillis();
+    }
+
+    @Override
+    public double getP99WaitMillis() {
+        return _wait.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getMaxWaitMillis() {
+        return _wait.getMaxMillis();
+    }
+
+    /**
+     * Recommend pool settings based on what we've observed. The driver can't
+     * resize its pools once they're created, so these are for you to apply to
+     * the connector's configuration on the next deploy.
+     *
+     * @return a human-readable report
+     */
+    @Override
+    public String getPoolSizingReport() {
+        MongoOptions options = _connection.getMongoOptions();
+        int connectionsPerHost = options.connectionsPerHost;
+        int allowedWaiters = connectionsPerHost * options.threadsAllowedToBlockForConnectionMultiplier;
+        double p99Wait = getP99WaitMillis();
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(
+            "connectionsPerHost=%d threadsAllowedToBlock=%d maxWaitTime=%dms; observed peakInUse=%d peakInFlight=%d peakWaiters=%d waitMean=%.2fms waitP99=%.2fms waitMax=%.2fms",
+            connectionsPerHost,
+            allowedWaiters,
+            options.maxWaitTime,
+            getPeakInUse(),
+            getPeakInFlight(),
+            getPeakWaiters(),
+            getMeanWaitMillis(),
+            p99Wait,
+            getMaxWaitMillis()
+        ));
+
+        if (getPeakWaiters() > 0 || p99Wait >= 1.0) {
+            int recommended = (int)Math.ceil(Math.max(getPeakInFlight(), connectionsPerHost) * 1.25);
+            report.append(String.format("%nThreads are waiting for connections; consider raising connectionsPerHost to %d", recommended));
+        } else if (getPeakInUse() > 0 && getPeakInUse() * 2 < connectionsPerHost) {
+            int recommended = Math.max(10, (int)Math.ceil(getPeakInUse() * 1.5));
+            report.append(String.format("%nThe pool is mostly idle; connectionsPerHost could be lowered to %d", recommended));
+        } else {
+            report.append(String.format("%nThe pool looks appropriately sized"));
+        }
+
+        if (getPeakWaiters() > allowedWaiters / 2 && connectionsPerHost > 0) {
+            int multiplier = (int)Math.ceil((getPeakWaiters() * 2.0) / connectionsPerHost);
+            report.append(String.format("%nWaiters are approaching the limit; consider raising threadsAllowedToBlockForConnectionMultiplier to %d", multiplier));
+        }
+        if (options.maxWaitTime > 0 && getMaxWaitMillis() * 2 > options.maxWaitTime) {
+            report.append(String.format("%nWaits are approaching maxWaitTime; consider raising it to at least %d", (long)Math.ceil(getMaxWaitMillis() * 2)));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        _peakInFlight.set(_inFlight.get());
+        _peakInUse.set(0);
+        _peakWaiters.set(_waiters.get());
+        _wait.reset();
+    }
+
+}
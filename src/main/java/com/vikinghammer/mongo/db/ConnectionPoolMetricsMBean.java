@@ -0,0 +1,37 @@
+package com.vikinghammer.mongo.db;
+
+/**
+ * The JMX view of a MongoDatabaseConnector's connection pools. Wait times
+ * are in milliseconds.
+ *
+ * @author Sean Schulte
+ */
+public interface ConnectionPoolMetricsMBean {
+
+    public int getInUse();
+
+    public int getAvailable();
+
+    public int getTotal();
+
+    public int getInFlight();
+
+    public int getWaiters();
+
+    public int getPeakInUse();
+
+    public int getPeakInFlight();
+
+    public int getPeakWaiters();
+
+    public double getMeanWaitMillis();
+
+    public double getP99WaitMillis();
+
+    public double getMaxWaitMillis();
+
+    public String getPoolSizingReport();
+
+    public void reset();
+
+}
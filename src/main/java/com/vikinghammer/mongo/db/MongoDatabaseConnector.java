@@ -2,9 +2,17 @@ package com.vikinghammer.mongo.db;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import java.io.IOException;
 import java.net.UnknownHostException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import org.springframework.util.Assert;
 
 import com.mongodb.Mongo;
@@ -13,6 +21,8 @@ import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.ServerAddress;
 
+import com.vikinghammer.mongo.metrics.MetricsRegistry;
+
 /**
  * Effectively a wrapper for Mongo's DB, which allows you to configure
  * your database using Spring, and inject them into your collections.
@@ -24,6 +34,8 @@ import com.mongodb.ServerAddress;
  */
 public class MongoDatabaseConnector {
 
+	private Logger _log = LoggerFactory.getLogger(getClass());
+
     private String _host;
     private String _databaseName;
 
@@ -35,11 +47,25 @@ public class MongoDatabaseConnector {
     private int _threadsAllowedToBlockForConnectionMultiplier;
     private int _maxConnectionRetryTime;
 
+    private int _warmUpConnections;
+    private List<String> _warmUpCollections;
+    private long _poolSampleIntervalMillis;
+    private MetricsRegistry _metricsRegistry;
+    private ReadPreference _readPreference;
+    private long _probeIntervalMillis;
+    private double _acceptableLatencyMillis;
+
     private Mongo _connection;
     private DB _db;
+    private ConnectionPoolMetrics _poolMetrics;
+    private ScheduledExecutorService _poolSampler;
+    private ReplicaSetMonitor _replicaSetMonitor;
+    private boolean _slaveOk;
 
     public MongoDatabaseConnector() {
         super();
+        _probeIntervalMillis = 5000;
+        _acceptableLatencyMillis = 15;
     }
 
     /**
@@ -72,12 +98,121 @@ public class MongoDatabaseConnector {
         // Set if they supply multiple hostnames
         if (hosts.size() > 1) {
             _connection = new Mongo(hosts, options);
-            _connection.slaveOk();
+            if (_readPreference == null) {
+                // no routing configured, so every read is allowed to go to a secondary
+                _connection.slaveOk();
+                _slaveOk = true;
+            } else {
+                // the main connection only talks to the primary, and the monitor routes reads elsewhere
+                _replicaSetMonitor = new ReplicaSetMonitor(
+                    hosts,
+                    options,
+                    _databaseName,
+                    _probeIntervalMillis,
+                    _acceptableLatencyMillis
+                );
+                _replicaSetMonitor.start();
+            }
         } else {
             _connection = new Mongo(_host, options);
         }
 
         _db = _connection.getDB(_databaseName);
+
+        _poolMetrics = new ConnectionPoolMetrics(_connection);
+        if (_metricsRegistry != null) {
+            _metricsRegistry.registerMBean(_poolMetrics, "ConnectionPool", String.format("%s/%s", _host, _databaseName));
+        }
+
+        _warmUp();
+
+        if (_poolSampleIntervalMillis > 0) {
+            _startPoolSampler();
+        }
+    }
+
+    /**
+     * Stop sampling the connection pools, and stop monitoring the replica set.
+     */
+    public void shutdown() {
+        if (_poolSampler != null) {
+            _poolSampler.shutdownNow();
+        }
+        if (_replicaSetMonitor != null) {
+            _replicaSetMonitor.shutdown();
+        }
+    }
+
+    /**
+     * @return telemetry for the connection pools
+     */
+    public ConnectionPoolMetrics getPoolMetrics() {
+        return _poolMetrics;
+    }
+
+    /**
+     * MongoCollection calls this when it starts an operation, so we can tell
+     * how many threads are using (or waiting for) a connection.
+     */
+    public void operationStarted() {
+        _poolMetrics.operationStarted();
+    }
+
+    /**
+     * MongoCollection calls this when an operation finishes.
+     */
+    public void operationFinished() {
+        _poolMetrics.operationFinished();
+    }
+
+    /**
+     * Open the configured number of connections in each pool, and touch each of
+     * the configured collections, so the first requests after startup don't pay
+     * for connection setup. Failures here are logged, not thrown; the pools will
+     * just be filled lazily instead.
+     */
+    private void _warmUp() {
+        if (_warmUpConnections > 0) {
+            long start = System.currentTimeMillis();
+            try {
+                int opened = _poolMetrics.warmUp(_warmUpConnections);
+                _log.info(String.format("Opened %d connection(s) to %s in %dms", opened, _host, System.currentTimeMillis() - start));
+            } catch (IOException e) {
+                _log.warn(String.format("Unable to warm up connections to %s", _host), e);
+            } catch (RuntimeException e) {
+                _log.warn(String.format("Unable to warm up connections to %s", _host), e);
+            }
+        }
+        if (_warmUpCollections != null) {
+            for (String collectionName : _warmUpCollections) {
+                try {
+                    _db.getCollection(collectionName).findOne();
+                } catch (RuntimeException e) {
+                    _log.warn(String.format("Unable to warm up collection %s", collectionName), e);
+                }
+            }
+        }
+    }
+
+    private void _startPoolSampler() {
+        _poolSampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "mongo-pool-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _poolSampler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    _poolMetrics.sample();
+                } catch (RuntimeException e) {
+                    _log.debug("Unable to sample connection pools", e);
+                }
+            }
+        }, _poolSampleIntervalMillis, _poolSampleIntervalMillis, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -90,6 +225,80 @@ public class MongoDatabaseConnector {
         return _db.getCollection(collectionName);
     }
 
+    /**
+     * Get a connection to a collection, on the replica set member that reads
+     * with the given preference should go to. If we aren't routing reads (ie,
+     * there's only one host, or no read preference was configured on the
+     * connector), this is the same as getCollection(collectionName).
+     *
+     * @param collectionName - the name of the collection you want
+     * @param preference - where the read should go
+     * @param maxStalenessMillis - don't read from a secondary that's further behind than this (0 for no limit)
+     * @return a DBCollection you can query against
+     */
+    public DBCollection getCollection(String collectionName, ReadPreference preference, long maxStalenessMillis) {
+        if (_replicaSetMonitor != null) {
+            ReplicaSetMember member = _replicaSetMonitor.select(preference, maxStalenessMillis);
+            if (member != null) {
+                return member.getDB().getCollection(collectionName);
+            }
+        }
+        return _db.getCollection(collectionName);
+    }
+
+    /**
+     * Get a connection to a collection on a different replica set member than
+     * the one given, to send a hedged read to.
+     *
+     * @param collectionName - the name of the collection you want
+     * @param first - the collection the first read went to
+     * @param maxStalenessMillis - don't read from a secondary that's further behind than this (0 for no limit)
+     * @return a DBCollection on another member, or null if we aren't routing reads or there isn't another member
+     */
+    public DBCollection getHedgeCollection(String collectionName, DBCollection first, long maxStalenessMillis) {
+        if (_replicaSetMonitor == null) {
+            return null;
+        }
+        ReplicaSetMember exclude = null;
+        for (ReplicaSetMember member : _replicaSetMonitor.getMembers()) {
+            if (member.getDB() == first.getDB()) {
+                exclude = member;
+            }
+        }
+        ReplicaSetMember other = _replicaSetMonitor.selectOther(exclude, maxStalenessMillis);
+        return (other == null) ? null : other.getDB().getCollection(collectionName);
+    }
+
+    /**
+     * @return the default read preference for collections on this connector, or null if reads aren't routed
+     */
+    public ReadPreference getReadPreference() {
+        return _readPreference;
+    }
+
+    /**
+     * @return true if every read on this connector is allowed to go to a secondary
+     *         (multiple hosts, but no read preference), so reads can't be routed
+     */
+    public boolean isSlaveOk() {
+        return _slaveOk;
+    }
+
+    /**
+     * @return the replica set monitor, or null if reads aren't routed
+     */
+    public ReplicaSetMonitor getReplicaSetMonitor() {
+        return _replicaSetMonitor;
+    }
+
+    public String getHost() {
+        return _host;
+    }
+
+    public String getDatabaseName() {
+        return _databaseName;
+    }
+
     public void setHost(String host) {
         _host = host;
     }
@@ -125,5 +334,75 @@ public class MongoDatabaseConnector {
     public void setMaxConnectionRetryTime(int maxConnectionRetryTime) {
         _maxConnectionRetryTime = maxConnectionRetryTime;
     }
+
+    /**
+     * Open this many connections in each pool during init().
+     *
+     * @param warmUpConnections
+     */
+    public void setWarmUpConnections(int warmUpConnections) {
+        _warmUpConnections = warmUpConnections;
+    }
+
+    /**
+     * Touch each of these collections during init(), to load them into the server's memory.
+     *
+     * @param warmUpCollections
+     */
+    public void setWarmUpCollections(List<String> warmUpCollections) {
+        _warmUpCollections = warmUpCollections;
+    }
+
+    /**
+     * Sample the connection pools this often; 0 (the default) disables sampling.
+     *
+     * @param poolSampleIntervalMillis
+     */
+    public void setPoolSampleIntervalMillis(long poolSampleIntervalMillis) {
+        _poolSampleIntervalMillis = poolSampleIntervalMillis;
+    }
+
+    /**
+     * Route reads across the members of the replica set. If this isn't set (the
+     * default), and multiple hosts are configured, every read is allowed to go
+     * to a secondary. If it is set, the main connection only reads from the
+     * primary, and each collection (or query) can choose where its reads go;
+     * this is the default for collections that don't choose. Collections and
+     * queries can't set a read preference when multiple hosts are configured
+     * without one, since the driver would send their reads to a secondary
+     * regardless.
+     *
+     * @param readPreference
+     */
+    public void setReadPreference(ReadPreference readPreference) {
+        _readPreference = readPreference;
+    }
+
+    /**
+     * How often to probe the replica set members for latency and lag (defaults to 5000).
+     *
+     * @param probeIntervalMillis
+     */
+    public void setProbeIntervalMillis(long probeIntervalMillis) {
+        _probeIntervalMillis = probeIntervalMillis;
+    }
+
+    /**
+     * Members within this many milliseconds of the fastest one share the reads (defaults to 15).
+     *
+     * @param acceptableLatencyMillis
+     */
+    public void setAcceptableLatencyMillis(double acceptableLatencyMillis) {
+        _acceptableLatencyMillis = acceptableLatencyMillis;
+    }
+
+    /**
+     * If supplied, the pool telemetry is registered as a JMX MBean.
+     *
+     * @param metricsRegistry
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        _metricsRegistry = metricsRegistry;
+    }
 	
 }
@@ -0,0 +1,27 @@
+package com.vikinghammer.mongo.db;
+
+/**
+ * Where reads should be sent when the database is a replica set.
+ *
+ * @author Sean Schulte
+ */
+public enum ReadPreference {
+
+    /**
+     * Always read from the primary. Use this when you need to read your own writes.
+     */
+    PRIMARY,
+
+    /**
+     * Read from the fastest secondary that's fresh enough, falling back to the
+     * primary if there isn't one.
+     */
+    SECONDARY_PREFERRED,
+
+    /**
+     * Read from whichever member (primary or secondary) has the lowest measured
+     * latency and is fresh enough.
+     */
+    NEAREST
+
+}
@@ -0,0 +1,119 @@
+package com.vikinghammer.mongo.db;
+
+import com.mongodb.DB;
+import com.mongodb.Mongo;
+import com.mongodb.ServerAddress;
+
+/**
+ * A single member of a replica set, as seen by the ReplicaSetMonitor. Each
+ * member has its own direct connection, so reads can be sent to it
+ * specifically; the latency, role and lag are refreshed by each probe.
+ *
+ * @author Sean Schulte
+ */
+public class ReplicaSetMember {
+
+    private final ServerAddress _address;
+    private final Mongo _connection;
+    private final DB _db;
+
+    private volatile boolean _healthy;
+    private volatile boolean _primary;
+    private volatile boolean _secondary;
+    private volatile double _pingMillis;
+    private volatile long _lagMillis;
+
+    ReplicaSetMember(ServerAddress address, Mongo connection, String databaseName) {
+        super();
+        _address = address;
+        _connection = connection;
+        _db = connection.getDB(databaseName);
+        _lagMillis = -1;
+    }
+
+    /**
+     * Fold a new ping measurement into the moving average, so a single slow
+     * ping doesn't send all our reads elsewhere.
+     */
+    void updatePing(double pingMillis) {
+        if (_pingMillis == 0) {
+            _pingMillis = pingMillis;
+        } else {
+            _pingMillis = (_pingMillis * 0.8) + (pingMillis * 0.2);
+        }
+    }
+
+    void setHealthy(boolean healthy) {
+        _healthy = healthy;
+    }
+
+    void setRole(boolean primary, boolean secondary) {
+        _primary = primary;
+        _secondary = secondary;
+    }
+
+    void setLagMillis(long lagMillis) {
+        _lagMillis = lagMillis;
+    }
+
+    /**
+     * @param maxStalenessMillis - 0 or less for no limit
+     * @return true if this member can serve reads that tolerate the given staleness
+     */
+    boolean isFreshEnough(long maxStalenessMillis) {
+        if (_primary || maxStalenessMillis <= 0) {
+            return true;
+        }
+        // if we don't know how far behind it is, don't trust it with a staleness limit
+        return _lagMillis >= 0 && _lagMillis <= maxStalenessMillis;
+    }
+
+    void close() {
+        _connection.close();
+    }
+
+    public ServerAddress getAddress() {
+        return _address;
+    }
+
+    public DB getDB() {
+        return _db;
+    }
+
+    public boolean isHealthy() {
+        return _healthy;
+    }
+
+    public boolean isPrimary() {
+        return _primary;
+    }
+
+    public boolean isSecondary() {
+        return _secondary;
+    }
+
+    public double getPingMillis() {
+        return _pingMillis;
+    }
+
+    /**
+     * @return how far behind the primary this member is, or -1 if unknown
+     */
+    public long getLagMillis() {
+        return _lagMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%s healthy=%s primary=%s secondary=%s ping=%.1fms lag=%dms",
+            _address,
+            _healthy,
+            _primary,
+            _secondary,
+            _pingMillis,
+            _lagMillis
+        );
+    }
+
+}
@@ -0,0 +1,246 @@
+package com.vikinghammer.mongo.db;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.DBObject;
+import com.mongodb.Mongo;
+import com.mongodb.MongoOptions;
+import com.mongodb.ServerAddress;
+
+/**
+ * Keeps a direct connection to each member of a replica set, and periodically
+ * probes each one for its latency, its role (primary or secondary) and how far
+ * it's lagging behind the primary. MongoDatabaseConnector uses this to route
+ * each read to an appropriate member, according to its ReadPreference.
+ *
+ * @author Sean Schulte
+ */
+public class ReplicaSetMonitor {
+
+	private Logger _log = LoggerFactory.getLogger(getClass());
+
+    private final List<ReplicaSetMember> _members;
+    private final long _probeIntervalMillis;
+    private final double _acceptableLatencyMillis;
+    private final Random _random;
+
+    private ScheduledExecutorService _prober;
+
+    /**
+     * @param addresses - the members of the replica set
+     * @param options - the options to use for each member's connection
+     * @param databaseName - the database we'll be reading from
+     * @param probeIntervalMillis - how often to probe each member
+     * @param acceptableLatencyMillis - members within this much of the fastest one are all considered "nearest," and share the load
+     */
+    public ReplicaSetMonitor(
+        List<ServerAddress> addresses,
+        MongoOptions options,
+        String databaseName,
+        long probeIntervalMillis,
+        double acceptableLatencyMillis
+    ) {
+        super();
+        List<ReplicaSetMember> members = new ArrayList<ReplicaSetMember>();
+        for (ServerAddress address : addresses) {
+            Mongo connection = new Mongo(address, options);
+            connection.slaveOk();
+            members.add(new ReplicaSetMember(address, connection, databaseName));
+        }
+        _members = Collections.unmodifiableList(members);
+        _probeIntervalMillis = probeIntervalMillis;
+        _acceptableLatencyMillis = acceptableLatencyMillis;
+        _random = new Random();
+    }
+
+    /**
+     * Probe every member once, then keep probing in the background.
+     */
+    public void start() {
+        probe();
+
+        _prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "mongo-replica-set-monitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _prober.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                probe();
+            }
+        }, _probeIntervalMillis, _probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop probing, and close the connections to each member.
+     */
+    public void shutdown() {
+        if (_prober != null) {
+            _prober.shutdownNow();
+        }
+        for (ReplicaSetMember member : _members) {
+            member.close();
+        }
+    }
+
+    /**
+     * Measure the latency and role of every member, then work out how far each
+     * secondary is behind the primary.
+     */
+    public void probe() {
+        for (ReplicaSetMember member : _members) {
+            try {
+                long start = System.nanoTime();
+                CommandResult result = member.getDB().getSisterDB("admin").command(new BasicDBObject("isMaster", 1));
+                double pingMillis = (System.nanoTime() - start) / 1000000.0;
+                result.throwOnError();
+
+                member.updatePing(pingMillis);
+                member.setRole(Boolean.TRUE.equals(result.get("ismaster")), Boolean.TRUE.equals(result.get("secondary")));
+                member.setHealthy(true);
+            } catch (RuntimeException e) {
+                member.setHealthy(false);
+                _log.debug(String.format("Unable to probe replica set member %s", member.getAddress()), e);
+            }
+        }
+        _probeLag();
+    }
+
+    /**
+     * Ask any healthy member for the replica set status, and compare each
+     * member's last applied operation to the primary's. If we can't get the
+     * status (eg, we aren't allowed to run replSetGetStatus), the lag is left
+     * unknown.
+     */
+    private void _probeLag() {
+        for (ReplicaSetMember member : _members) {
+            if (!member.isHealthy()) {
+                continue;
+            }
+            try {
+                CommandResult status = member.getDB().getSisterDB("admin").command(new BasicDBObject("replSetGetStatus", 1));
+                status.throwOnError();
+
+                List<?> statuses = (List<?>)status.get("members");
+                Date primaryOptime = null;
+                for (Object item : statuses) {
+                    DBObject memberStatus = (DBObject)item;
+                    if ("PRIMARY".equals(memberStatus.get("stateStr"))) {
+                        primaryOptime = (Date)memberStatus.get("optimeDate");
+                    }
+                }
+                for (Object item : statuses) {
+                    DBObject memberStatus = (DBObject)item;
+                    ReplicaSetMember statusMember = _find(String.valueOf(memberStatus.get("name")));
+                    Date optime = (Date)memberStatus.get("optimeDate");
+                    if (statusMember != null) {
+                        if (primaryOptime != null && optime != null) {
+                            statusMember.setLagMillis(Math.max(0, primaryOptime.getTime() - optime.getTime()));
+                        } else {
+                            statusMember.setLagMillis(-1);
+                        }
+                    }
+                }
+                return;
+            } catch (RuntimeException e) {
+                _log.debug(String.format("Unable to get replica set status from %s", member.getAddress()), e);
+            }
+        }
+    }
+
+    private ReplicaSetMember _find(String name) {
+        for (ReplicaSetMember member : _members) {
+            if (member.getAddress().sameHost(name)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Choose a member to read from.
+     *
+     * @param preference - where reads should go
+     * @param maxStalenessMillis - don't read from a secondary that's further behind than this (0 or less for no limit)
+     * @return the member to read from, or null if the read should go through the primary connection
+     */
+    public ReplicaSetMember select(ReadPreference preference, long maxStalenessMillis) {
+        if (preference == null || preference == ReadPreference.PRIMARY) {
+            return null;
+        }
+
+        List<ReplicaSetMember> candidates = new ArrayList<ReplicaSetMember>();
+        for (ReplicaSetMember member : _members) {
+            if (!member.isHealthy() || !member.isFreshEnough(maxStalenessMillis)) {
+                continue;
+            }
+            if (member.isSecondary() || (preference == ReadPreference.NEAREST && member.isPrimary())) {
+                candidates.add(member);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        double fastest = Double.MAX_VALUE;
+        for (ReplicaSetMember member : candidates) {
+            fastest = Math.min(fastest, member.getPingMillis());
+        }
+        List<ReplicaSetMember> nearest = new ArrayList<ReplicaSetMember>();
+        for (ReplicaSetMember member : candidates) {
+            if (member.getPingMillis() <= fastest + _acceptableLatencyMillis) {
+                nearest.add(member);
+            }
+        }
+        return nearest.get(_random.nextInt(nearest.size()));
+    }
+
+    /**
+     * Choose a member to send a hedged read to: the fastest healthy member
+     * other than the one the first read went to.
+     *
+     * @param exclude - the member the first read went to, or null if it went through the primary connection
+     * @param maxStalenessMillis - don't read from a secondary that's further behind than this (0 or less for no limit)
+     * @return the member to read from, or null if there isn't another one
+     */
+    public ReplicaSetMember selectOther(ReplicaSetMember exclude, long maxStalenessMillis) {
+        ReplicaSetMember fastest = null;
+        for (ReplicaSetMember member : _members) {
+            if (member == exclude || !member.isHealthy() || !member.isFreshEnough(maxStalenessMillis)) {
+                continue;
+            }
+            if (exclude == null && member.isPrimary()) {
+                continue;
+            }
+            if (!member.isPrimary() && !member.isSecondary()) {
+                continue;
+            }
+            if (fastest == null || member.getPingMillis() < fastest.getPingMillis()) {
+                fastest = member;
+            }
+        }
+        return fastest;
+    }
+
+    public List<ReplicaSetMember> getMembers() {
+        return _members;
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.vikinghammer.mongo.exception;
+
+/**
+ * Thrown when a MongoCollection is already running as many operations as
+ * it's allowed to, and either its wait queue is full or we waited as long as
+ * we're allowed to for a turn. Rather than piling up behind a slow collection
+ * (and tying up connections that other collections need), we fail fast; you
+ * can handle this by backing off, or by serving a degraded response.
+ *
+ * @author Sean Schulte
+ */
+public class BulkheadRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new BulkheadRejectedException with no detail message.
+     */
+    public BulkheadRejectedException() {
+        super();
+    }
+
+    /**
+     * Creates a new BulkheadRejectedException with a detail message built
+     * based on the given collection name and reason.
+     *
+     * @param collectionName - the collection that rejected the operation
+     * @param reason - why it was rejected
+     */
+    public BulkheadRejectedException(String collectionName, String reason) {
+        super(String.format("Operation on collection %s rejected: %s.", collectionName, reason));
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.vikinghammer.mongo.exception;
+
+/**
+ * Thrown when an operation with a deadline didn't finish in time. The
+ * operation is abandoned: its cursor, if it had one, is closed, and its
+ * result (if it ever arrives) is thrown away. A write may or may not have
+ * happened.
+ *
+ * @author Sean Schulte
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new DeadlineExceededException with no detail message.
+     */
+    public DeadlineExceededException() {
+        super();
+    }
+
+    /**
+     * Creates a new DeadlineExceededException with a detail message built
+     * based on the given collection, operation and deadline.
+     *
+     * @param collectionName - the collection the operation was on
+     * @param operation - the operation that ran out of time
+     * @param timeoutMillis - how long it had
+     */
+    public DeadlineExceededException(String collectionName, String operation, long timeoutMillis) {
+        super(String.format("Operation %s on collection %s didn't finish within its %dms deadline.", operation, collectionName, timeoutMillis));
+    }
+
+}
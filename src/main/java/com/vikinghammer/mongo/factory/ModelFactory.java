@@ -1,13 +1,32 @@
 package com.vikinghammer.mongo.factory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.bson.types.Binary;
 import org.bson.types.ObjectId;
 import com.mongodb.DBObject;
 import com.mongodb.BasicDBObject;
 
+import com.vikinghammer.mongo.codec.BinaryIO;
+import com.vikinghammer.mongo.codec.DecompressingDBObject;
+import com.vikinghammer.mongo.codec.FieldCompressor;
+import com.vikinghammer.mongo.codec.LazyText;
+import com.vikinghammer.mongo.metrics.CompressionMetrics;
 import com.vikinghammer.mongo.model.MongoModel;
+import com.vikinghammer.mongo.model.Page;
+import com.vikinghammer.mongo.model.PageItemCodec;
 
 /**
  * A factory builds MongoModel objects based on DBObject documents,
@@ -18,6 +37,13 @@ import com.vikinghammer.mongo.model.MongoModel;
  * Subclasses need only worry about the specific fields defined in
  * the MongoModel subclass; administrative fields like id/version are
  * handled automatically in the ModelFactory.
+ *
+ * Large string fields can be compressed, by naming them in
+ * setCompressedFields(). getDBObject() compresses any of those fields that are
+ * at least compressionThreshold bytes, and build() decompresses each one only
+ * when doCreateModel() reads it. To put off decompression until the model's
+ * field is actually used, read it with getLazyText() instead. Compressed
+ * fields can't be queried or indexed.
  * 
  * @author Sean Schulte
  */
@@ -25,8 +51,19 @@ public abstract class ModelFactory<M extends MongoModel> {
 
 	protected Logger _log = LoggerFactory.getLogger(getClass());
 
+    private static final byte FORMAT_VERSION = 1;
+
+    private final Set<String> _compressedFields;
+    private int _compressionThreshold;
+    private final CompressionMetrics _compressionMetrics;
+    private final FieldCompressor _fieldCompressor;
+
     public ModelFactory() {
         super();
+        _compressedFields = new LinkedHashSet<String>();
+        _compressionThreshold = 1024;
+        _compressionMetrics = new CompressionMetrics();
+        _fieldCompressor = new FieldCompressor(_compressionMetrics);
     }
 
     /**
@@ -41,7 +78,8 @@ public abstract class ModelFactory<M extends MongoModel> {
             return null;
         }
 
-        M model = doCreateModel(doc);
+        DBObject fields = _compressedFields.isEmpty() ? doc : new DecompressingDBObject(doc, _fieldCompressor);
+        M model = doCreateModel(fields);
 
         mergeIdAndVersionIntoModel(model, doc);
 
@@ -88,6 +126,15 @@ public abstract class ModelFactory<M extends MongoModel> {
 
         doFillDBObject(doc, model);
 
+        for (String field : _compressedFields) {
+            Object value = doc.get(field);
+            if (value instanceof LazyText) {
+                doc.put(field, ((LazyText)value).toStoredValue(_fieldCompressor, _compressionThreshold));
+            } else if (value instanceof String) {
+                doc.put(field, _fieldCompressor.compress((String)value, _compressionThreshold));
+            }
+        }
+
         if (!model.isNew()) {
             doc.put("_id", new ObjectId(model.getId()));
         }
@@ -106,5 +153,188 @@ public abstract class ModelFactory<M extends MongoModel> {
      * @param model - the MongoModel to get the fields from
      */
     protected abstract void doFillDBObject(DBObject doc, final M model);
+
+    /**
+     * Read a string field without decompressing it; it'll be decompressed the
+     * first time the LazyText is read. Use this in doCreateModel() for large
+     * fields that are often not needed, and put the LazyText back in the
+     * document in doFillDBObject(); if it was never read, it's saved without
+     * being recompressed.
+     *
+     * @param doc - the document passed to doCreateModel()
+     * @param key - the field to read
+     * @return the field, or null if it's missing
+     */
+    protected LazyText getLazyText(DBObject doc, String key) {
+        Object value = (doc instanceof DecompressingDBObject) ? ((DecompressingDBObject)doc).getRaw(key) : doc.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (FieldCompressor.isCompressed(value)) {
+            return new LazyText(((Binary)value).getData(), _fieldCompressor);
+        }
+        return new LazyText(String.valueOf(value));
+    }
+
+    /**
+     * Metrics on field compression: the compression ratio, and the time spent
+     * compressing and decompressing. Register this with
+     * MetricsRegistry.registerMBean() to expose it through JMX.
+     *
+     * @return the compression metrics for this factory
+     */
+    public CompressionMetrics getCompressionMetrics() {
+        return _compressionMetrics;
+    }
+
+    /**
+     * The string fields to compress.
+     *
+     * @param compressedFields
+     */
+    public void setCompressedFields(Collection<String> compressedFields) {
+        _compressedFields.clear();
+        _compressedFields.addAll(compressedFields);
+    }
+
+    /**
+     * Don't compress values smaller than this many bytes (defaults to 1024).
+     *
+     * @param compressionThreshold
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        _compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Write a model in our compact binary format, eg to put it in a cache.
+     * This is much smaller and faster than Java serialization of the model.
+     *
+     * @param model
+     * @return the model, as bytes
+     */
+    public byte[] toBytes(M model) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT_VERSION);
+            writeModel(out, model);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes - a model written by toBytes()
+     * @return the model
+     */
+    public M fromBytes(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            _checkFormatVersion(in);
+            return readModel(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read model", e);
+        }
+    }
+
+    /**
+     * Write a page of models in our compact binary format.
+     *
+     * @param page
+     * @return the page, as bytes
+     */
+    public byte[] pageToBytes(Page<M> page) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT_VERSION);
+            BinaryIO.writeNullableLong(out, page.getTotalItems());
+            BinaryIO.writeNullableInt(out, page.getPageNumber());
+            BinaryIO.writeNullableInt(out, page.getPageSize());
+            BinaryIO.writeVarInt(out, page.getItems().size());
+            for (M model : page.getItems()) {
+                writeModel(out, model);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes - a page written by pageToBytes()
+     * @return the page
+     */
+    public Page<M> pageFromBytes(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            _checkFormatVersion(in);
+            Page<M> page = new Page<M>();
+            page.setTotalItems(BinaryIO.readNullableLong(in));
+            page.setPageNumber(BinaryIO.readNullableInt(in));
+            page.setPageSize(BinaryIO.readNullableInt(in));
+            int size = BinaryIO.readVarInt(in);
+            for (int i = 0; i < size; i++) {
+                page.addItem(readModel(in));
+            }
+            return page;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read page", e);
+        }
+    }
+
+    /**
+     * Write models of the given class with writeModel() whenever a Page of
+     * them is serialized, rather than with Java serialization. Call this at
+     * startup in every JVM that writes or reads the pages.
+     *
+     * @param modelClass - the class of the models this factory builds
+     */
+    public void registerPageCodec(Class<M> modelClass) {
+        Page.registerItemCodec(modelClass, new PageItemCodec<M>() {
+            @Override
+            public void write(DataOutput out, M model) throws IOException {
+                writeModel(out, model);
+            }
+
+            @Override
+            public M read(DataInput in) throws IOException {
+                return readModel(in);
+            }
+        });
+    }
+
+    /**
+     * Write a single model. By default this writes the model's document as
+     * BSON; override this (and readModel()) if your model has a more compact
+     * form, or state that isn't in its document.
+     *
+     * @param out
+     * @param model
+     */
+    protected void writeModel(DataOutput out, M model) throws IOException {
+        BinaryIO.writeDBObject(out, getDBObject(model));
+    }
+
+    /**
+     * Read a single model written by writeModel().
+     *
+     * @param in
+     * @return the model
+     */
+    protected M readModel(DataInput in) throws IOException {
+        return build(BinaryIO.readDBObject(in));
+    }
+
+    private void _checkFormatVersion(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException(String.format("Unknown format version %d", version));
+        }
+    }
 	
 }
@@ -0,0 +1,62 @@
+package com.vikinghammer.mongo.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * All the operation metrics for a single collection. Every operation type is
+ * set up when this is created, so looking one up never needs a lock.
+ *
+ * @author Sean Schulte
+ */
+public class CollectionMetrics {
+
+    private final String _collectionName;
+    private final Map<OperationType, OperationMetrics> _operations;
+
+    public CollectionMetrics(String collectionName) {
+        super();
+        _collectionName = collectionName;
+
+        Map<OperationType, OperationMetrics> operations = new EnumMap<OperationType, OperationMetrics>(OperationType.class);
+        for (OperationType type : OperationType.values()) {
+            operations.put(type, new OperationMetrics(collectionName, type));
+        }
+        _operations = Collections.unmodifiableMap(operations);
+    }
+
+    public String getCollectionName() {
+        return _collectionName;
+    }
+
+    public OperationMetrics get(OperationType type) {
+        return _operations.get(type);
+    }
+
+    public Collection<OperationMetrics> getOperations() {
+        return _operations.values();
+    }
+
+    /**
+     * @see OperationMetrics#success(long, long)
+     */
+    public void success(OperationType type, long elapsedNanos, long documents) {
+        _operations.get(type).success(elapsedNanos, documents);
+    }
+
+    /**
+     * @see OperationMetrics#failure(long, Throwable)
+     */
+    public void failure(OperationType type, long elapsedNanos, Throwable error) {
+        _operations.get(type).failure(elapsedNanos, error);
+    }
+
+    void tick(long intervalMillis) {
+        for (OperationMetrics metrics : _operations.values()) {
+            metrics.tick(intervalMillis);
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.vikinghammer.mongo.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How well field compression is working: how many values were compressed
+ * (and how many were left alone, being too small or incompressible), how
+ * much smaller they got, and how long compressing and decompressing them
+ * took. The times are the CPU time of the thread doing the work, so they
+ * don't grow when the thread is descheduled under load; on a JVM that can't
+ * measure thread CPU time, they fall back to elapsed time. Time spent
+ * compressing values that didn't get smaller is counted separately, since
+ * it's paid for nothing.
+ *
+ * @author Sean Schulte
+ */
+public class CompressionMetrics implements CompressionMetricsMBean {
+
+    private final AtomicLong _compressed = new AtomicLong();
+    private final AtomicLong _skipped = new AtomicLong();
+    private final AtomicLong _incompressible = new AtomicLong();
+    private final AtomicLong _decompressed = new AtomicLong();
+    private final AtomicLong _rawBytes = new AtomicLong();
+    private final AtomicLong _storedBytes = new AtomicLong();
+    private final AtomicLong _compressNanos = new AtomicLong();
+    private final AtomicLong _decompressNanos = new AtomicLong();
+    private final AtomicLong _incompressibleNanos = new AtomicLong();
+
+    /**
+     * @param rawBytes - the size of the value before compression
+     * @param storedBytes - the size of the value after compression
+     * @param elapsedNanos - the CPU time it took to compress
+     */
+    public void compressed(long rawBytes, long storedBytes, long elapsedNanos) {
+        _compressed.incrementAndGet();
+        _rawBytes.addAndGet(rawBytes);
+        _storedBytes.addAndGet(storedBytes);
+        _compressNanos.addAndGet(elapsedNanos);
+    }
+
+    /**
+     * A value was stored as it was, because it was too small or didn't compress.
+     */
+    public void skipped() {
+        _skipped.incrementAndGet();
+    }
+
+    /**
+     * A value was compressed but stored as it was, because it didn't get any smaller.
+     *
+     * @param elapsedNanos - the CPU time spent compressing it
+     */
+    public void incompressible(long elapsedNanos) {
+        _skipped.incrementAndGet();
+        _incompressible.incrementAndGet();
+        _incompressibleNanos.addAndGet(elapsedNanos);
+    }
+
+    public void decompressed(long elapsedNanos) {
+        _decompressed.incrementAndGet();
+        _decompressNanos.addAndGet(elapsedNanos);
+    }
+
+    @Override
+    public long getCompressed() {
+        return _compressed.get();
+    }
+
+    @Override
+    public long getSkipped() {
+        return _skipped.get();
+    }
+
+    /**
+     * @return how many of the skipped values were compressed and then thrown away, because they didn't get any smaller
+     */
+    @Override
+    public long getIncompressible() {
+        return _incompressible.get();
+    }
+
+    @Override
+    public long getDecompressed() {
+        return _decompressed.get();
+    }
+
+    @Override
+    public long getRawBytes() {
+        return _rawBytes.get();
+    }
+
+    @Override
+    public long getStoredBytes() {
+        return _storedBytes.get();
+    }
+
+    /**
+     * @return the size of the compressed values before compression over their size after (eg, 4.0 means they're a quarter the size)
+     */
+    @Override
+    public double getCompressionRatio() {
+        long stored = _storedBytes.get();
+        return stored == 0 ? 0 : (double)_rawBytes.get() / stored;
+    }
+
+    /**
+     * @return the mean CPU time to compress a value, in microseconds
+     */
+    @Override
+    public double getMeanCompressMicros() {
+        long count = _compressed.get();
+        return count == 0 ? 0 : _compressNanos.get() / 1000.0 / count;
+    }
+
+    /**
+     * @return the mean CPU time to decompress a value, in microseconds
+     */
+    @Override
+    public double getMeanDecompressMicros() {
+        long count = _decompressed.get();
+        return count == 0 ? 0 : _decompressNanos.get() / 1000.0 / count;
+    }
+
+    /**
+     * @return the total CPU time spent compressing values that didn't get any smaller, in microseconds
+     */
+    @Override
+    public double getIncompressibleMicros() {
+        return _incompressibleNanos.get() / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        _compressed.set(0);
+        _skipped.set(0);
+        _incompressible.set(0);
+        _decompressed.set(0);
+        _rawBytes.set(0);
+        _storedBytes.set(0);
+        _compressNanos.set(0);
+        _decompressNanos.set(0);
+        _incompressibleNanos.set(0);
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.vikinghammer.mongo.metrics;
+
+/**
+ * The JMX view of a ModelFactory's field compression. Times are CPU
+ * microseconds (elapsed, where the JVM can't measure CPU time).
+ *
+ * @author Sean Schulte
+ */
+public interface CompressionMetricsMBean {
+
+    public long getCompressed();
+
+    public long getSkipped();
+
+    public long getIncompressible();
+
+    public long getDecompressed();
+
+    public long getRawBytes();
+
+    public long getStoredBytes();
+
+    public double getCompressionRatio();
+
+    public double getMeanCompressMicros();
+
+    public double getMeanDecompressMicros();
+
+    public double getIncompressibleMicros();
+
+    public void reset();
+
+}
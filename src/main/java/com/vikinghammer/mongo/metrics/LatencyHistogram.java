@@ -0,0 +1,123 @@
+package com.vikinghammer.mongo.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram in the style of HdrHistogram: values are
+ * recorded in microseconds into log-linear buckets, so each bucket is within
+ * about 6% of the values it holds no matter how large they get. Recording is
+ * a couple of atomic increments; reading percentiles walks the buckets, and
+ * may be slightly inconsistent while other threads are recording.
+ *
+ * @author Sean Schulte
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAGNITUDES = 64 - SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (MAGNITUDES * SUB_BUCKETS);
+
+    private final AtomicLongArray _counts;
+    private final AtomicLong _count;
+    private final AtomicLong _totalMicros;
+    private final AtomicLong _maxMicros;
+
+    public LatencyHistogram() {
+        super();
+        _counts = new AtomicLongArray(BUCKETS);
+        _count = new AtomicLong();
+        _totalMicros = new AtomicLong();
+        _maxMicros = new AtomicLong();
+    }
+
+    /**
+     * @param elapsedNanos - the latency to record; negative values are ignored
+     */
+    public void recordNanos(long elapsedNanos) {
+        if (elapsedNanos < 0) {
+            return;
+        }
+        long micros = elapsedNanos / 1000;
+        _counts.incrementAndGet(_index(micros));
+        _count.incrementAndGet();
+        _totalMicros.addAndGet(micros);
+        long max = _maxMicros.get();
+        while (micros > max && !_maxMicros.compareAndSet(max, micros)) {
+            max = _maxMicros.get();
+        }
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public double getMeanMillis() {
+        long count = _count.get();
+        if (count == 0) {
+            return 0;
+        }
+        return (_totalMicros.get() / (double)count) / 1000.0;
+    }
+
+    public double getMaxMillis() {
+        return _maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * @param percentile - between 0 and 100, eg 99.9
+     * @return the latency at the given percentile, in milliseconds (0 if nothing has been recorded)
+     */
+    public double getPercentileMillis(double percentile) {
+        long count = _count.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long)Math.ceil((percentile / 100.0) * count);
+        if (target < 1) {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += _counts.get(i);
+            if (seen >= target) {
+                return Math.min(_highestValueIn(i), _maxMicros.get()) / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Clear out everything that's been recorded.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            _counts.set(i, 0);
+        }
+        _count.set(0);
+        _totalMicros.set(0);
+        _maxMicros.set(0);
+    }
+
+    private static int _index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + (shift * SUB_BUCKETS) + subBucket;
+    }
+
+    private static long _highestValueIn(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowest = ((long)(SUB_BUCKETS + subBucket)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+}
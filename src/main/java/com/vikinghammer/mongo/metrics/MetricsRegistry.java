@@ -0,0 +1,213 @@
+package com.vikinghammer.mongo.metrics;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.JMException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the metrics for all your collections, exposes them as JMX
+ * MBeans, and periodically hands them to any configured reporters.
+ *
+ * Configure one of these with Spring and inject it into each MongoCollection;
+ * the collection registers its metrics here when its init() method is called.
+ * Note that the init() method MUST be called, to start the reporting thread.
+ *
+ * Each operation on each collection gets its own MBean, named like:
+ *   com.vikinghammer.mongo:type=OperationMetrics,collection=users,operation=findOne
+ *
+ * @author Sean Schulte
+ */
+public class MetricsRegistry {
+
+	private Logger _log = LoggerFactory.getLogger(getClass());
+
+    private static final String JMX_DOMAIN = "com.vikinghammer.mongo";
+
+    private boolean _registerMBeans;
+    private long _reportIntervalMillis;
+    private List<MetricsReporter> _reporters;
+
+    private final ConcurrentMap<String, CollectionMetrics> _collections;
+    private final List<ObjectName> _registeredNames;
+
+    private ScheduledExecutorService _scheduler;
+    private long _lastTick;
+
+    public MetricsRegistry() {
+        super();
+        _registerMBeans = true;
+        _reportIntervalMillis = 60000;
+        _reporters = new ArrayList<MetricsReporter>();
+        _collections = new ConcurrentHashMap<String, CollectionMetrics>();
+        _registeredNames = new ArrayList<ObjectName>();
+    }
+
+    /**
+     * Start the thread that updates throughput and calls the reporters.
+     */
+    public void init() {
+        _lastTick = System.currentTimeMillis();
+        _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "mongo-metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, _reportIntervalMillis, _reportIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop reporting, and unregister all the MBeans.
+     */
+    public void shutdown() {
+        if (_scheduler != null) {
+            _scheduler.shutdownNow();
+        }
+        synchronized (_registeredNames) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName name : _registeredNames) {
+                try {
+                    server.unregisterMBean(name);
+                } catch (JMException e) {
+                    _log.warn(String.format("Unable to unregister MBean %s", name), e);
+                }
+            }
+            _registeredNames.clear();
+        }
+    }
+
+    /**
+     * Get the metrics for a collection, creating (and registering) them if
+     * this is the first time we've seen the collection.
+     *
+     * @param collectionName
+     * @return the metrics for the collection
+     */
+    public CollectionMetrics getCollectionMetrics(String collectionName) {
+        CollectionMetrics metrics = _collections.get(collectionName);
+        if (metrics == null) {
+            CollectionMetrics created = new CollectionMetrics(collectionName);
+            metrics = _collections.putIfAbsent(collectionName, created);
+            if (metrics == null) {
+                metrics = created;
+                if (_registerMBeans) {
+                    _registerMBeans(created);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the metrics for every registered collection
+     */
+    public Collection<CollectionMetrics> getCollectionMetrics() {
+        return _collections.values();
+    }
+
+    /**
+     * Update throughput for every operation, and hand the metrics to each of
+     * the reporters. This is called on every interval, but you can also call
+     * it yourself.
+     */
+    public synchronized void report() {
+        long now = System.currentTimeMillis();
+        long interval = now - _lastTick;
+        _lastTick = now;
+
+        Collection<CollectionMetrics> metrics = _collections.values();
+        for (CollectionMetrics collection : metrics) {
+            collection.tick(interval);
+        }
+        for (MetricsReporter reporter : _reporters) {
+            try {
+                reporter.report(metrics);
+            } catch (RuntimeException e) {
+                _log.warn(String.format("Metrics reporter %s failed", reporter), e);
+            }
+        }
+    }
+
+    /**
+     * Register some other MBean in our JMX domain, so it's cleaned up along with
+     * the rest when we shut down. This does nothing if MBeans are disabled.
+     *
+     * @param mbean - the MBean to register
+     * @param type - the type of the MBean, eg "ConnectionPool"
+     * @param name - a name to tell it apart from others of the same type
+     */
+    public void registerMBean(Object mbean, String type, String name) {
+        if (_registerMBeans) {
+            _register(mbean, String.format("type=%s,name=%s", type, _sanitize(name)));
+        }
+    }
+
+    private void _registerMBeans(CollectionMetrics metrics) {
+        for (OperationMetrics operation : metrics.getOperations()) {
+            _register(operation, String.format(
+                "type=OperationMetrics,collection=%s,operation=%s",
+                _sanitize(metrics.getCollectionName()),
+                operation.getOperation()
+            ));
+        }
+    }
+
+    private void _register(Object mbean, String properties) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(String.format("%s:%s", JMX_DOMAIN, properties));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(mbean, name);
+                synchronized (_registeredNames) {
+                    _registeredNames.add(name);
+                }
+            }
+        } catch (JMException e) {
+            _log.warn(String.format("Unable to register MBean %s", properties), e);
+        }
+    }
+
+    private static String _sanitize(String value) {
+        return value.replaceAll("[,=:*?\"\\n]", "_");
+    }
+
+    /**
+     * Whether to expose the metrics as JMX MBeans (defaults to true).
+     *
+     * @param registerMBeans
+     */
+    public void setRegisterMBeans(boolean registerMBeans) {
+        _registerMBeans = registerMBeans;
+    }
+
+    public void setReportIntervalMillis(long reportIntervalMillis) {
+        _reportIntervalMillis = reportIntervalMillis;
+    }
+
+    public void setReporters(List<MetricsReporter> reporters) {
+        _reporters = reporters;
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.vikinghammer.mongo.metrics;
+
+import java.util.Collection;
+
+/**
+ * Something that periodically receives the collection metrics from a
+ * MetricsRegistry, so it can log them or push them to a monitoring system.
+ *
+ * @author Sean Schulte
+ */
+public interface MetricsReporter {
+
+    /**
+     * @param metrics - the metrics for every registered collection
+     */
+    public void report(Collection<CollectionMetrics> metrics);
+
+}
@@ -0,0 +1,182 @@
+package com.vikinghammer.mongo.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vikinghammer.mongo.exception.VersionMismatchException;
+
+/**
+ * Counts, errors, documents returned and latency for a single operation on a
+ * single collection. Everything is recorded with atomic counters, so it's safe
+ * (and cheap) to call from any number of threads.
+ *
+ * @author Sean Schulte
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+
+    private final String _collectionName;
+    private final OperationType _operation;
+
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _errors = new AtomicLong();
+    private final AtomicLong _versionMismatches = new AtomicLong();
+    private final AtomicLong _documents = new AtomicLong();
+    private final LatencyHistogram _latency = new LatencyHistogram();
+
+    private volatile long _lastTickCount;
+    private volatile double _throughputPerSecond;
+
+    public OperationMetrics(String collectionName, OperationType operation) {
+        super();
+        _collectionName = collectionName;
+        _operation = operation;
+    }
+
+    /**
+     * Record a successful operation.
+     *
+     * @param elapsedNanos - how long it took, or -1 if it wasn't timed (ie, it returned a cursor)
+     * @param documents - the number of documents returned or affected, or -1 if unknown
+     */
+    public void success(long elapsedNanos, long documents) {
+        _count.incrementAndGet();
+        _latency.recordNanos(elapsedNanos);
+        if (documents > 0) {
+            _documents.addAndGet(documents);
+        }
+    }
+
+    /**
+     * Record a failed operation. Version mismatches are counted separately from
+     * other errors, since they're an expected part of optimistic locking.
+     *
+     * @param elapsedNanos - how long it took before it failed
+     * @param error - what went wrong
+     */
+    public void failure(long elapsedNanos, Throwable error) {
+        _count.incrementAndGet();
+        _latency.recordNanos(elapsedNanos);
+        if (error instanceof VersionMismatchException) {
+            _versionMismatches.incrementAndGet();
+        } else {
+            _errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Update the throughput based on how many operations happened since the
+     * last tick. The MetricsRegistry calls this on every reporting interval.
+     *
+     * @param intervalMillis - time since the last tick
+     */
+    void tick(long intervalMillis) {
+        long count = _count.get();
+        long delta = count - _lastTickCount;
+        _lastTickCount = count;
+        if (intervalMillis > 0) {
+            _throughputPerSecond = (delta * 1000.0) / intervalMillis;
+        }
+    }
+
+    public LatencyHistogram getLatency() {
+        return _latency;
+    }
+
+    @Override
+    public String getCollectionName() {
+        return _collectionName;
+    }
+
+    @Override
+    public String getOperation() {
+        return _operation.getName();
+    }
+
+    public OperationType getOperationType() {
+        return _operation;
+    }
+
+    @Override
+    public long getCount() {
+        return _count.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return _errors.get();
+    }
+
+    @Override
+    public long getVersionMismatches() {
+        return _versionMismatches.get();
+    }
+
+    @Override
+    public long getDocuments() {
+        return _documents.get();
+    }
+
+    @Override
+    public double getThroughputPerSecond() {
+        return _throughputPerSecond;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return _latency.getMeanMillis();
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return _latency.getMaxMillis();
+    }
+
+    @Override
+    public double getP50Millis() {
+        return _latency.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getP95Millis() {
+        return _latency.getPercentileMillis(95);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return _latency.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getP999Millis() {
+        return _latency.getPercentileMillis(99.9);
+    }
+
+    @Override
+    public void reset() {
+        _count.set(0);
+        _errors.set(0);
+        _versionMismatches.set(0);
+        _documents.set(0);
+        _latency.reset();
+        _lastTickCount = 0;
+        _throughputPerSecond = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%s.%s count=%d errors=%d versionMismatches=%d documents=%d rate=%.1f/s mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms",
+            _collectionName,
+            _operation.getName(),
+            getCount(),
+            getErrors(),
+            getVersionMismatches(),
+            getDocuments(),
+            getThroughputPerSecond(),
+            getMeanMillis(),
+            getP50Millis(),
+            getP99Millis(),
+            getMaxMillis()
+        );
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.vikinghammer.mongo.metrics;
+
+/**
+ * The JMX view of the metrics for a single operation on a single collection.
+ * Latencies are in milliseconds.
+ *
+ * @author Sean Schulte
+ */
+public interface OperationMetricsMBean {
+
+    public String getCollectionName();
+
+    public String getOperation();
+
+    public long getCount();
+
+    public long getErrors();
+
+    public long getVersionMismatches();
+
+    public long getDocuments();
+
+    public double getThroughputPerSecond();
+
+    public double getMeanMillis();
+
+    public double getMaxMillis();
+
+    public double getP50Millis();
+
+    public double getP95Millis();
+
+    public double getP99Millis();
+
+    public double getP999Millis();
+
+    public void reset();
+
+}
@@ -0,0 +1,32 @@
+package com.vikinghammer.mongo.metrics;
+
+/**
+ * The operations we keep metrics for.
+ *
+ * @author Sean Schulte
+ */
+public enum OperationType {
+
+    SAVE("save"),
+    FIND("find"),
+    FIND_ONE("findOne"),
+    COUNT("count"),
+    REMOVE("remove"),
+    MAP_REDUCE("mapReduce"),
+    QUERY_ONE("query.one"),
+    QUERY_LIST("query.list");
+
+    private final String _name;
+
+    private OperationType(String name) {
+        _name = name;
+    }
+
+    /**
+     * @return the name used in logs and JMX
+     */
+    public String getName() {
+        return _name;
+    }
+
+}
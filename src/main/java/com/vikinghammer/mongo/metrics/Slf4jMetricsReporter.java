@@ -0,0 +1,32 @@
+package com.vikinghammer.mongo.metrics;
+
+import java.util.Collection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs the metrics for every operation that has been used at least once.
+ *
+ * @author Sean Schulte
+ */
+public class Slf4jMetricsReporter implements MetricsReporter {
+
+	private Logger _log = LoggerFactory.getLogger(getClass());
+
+    public Slf4jMetricsReporter() {
+        super();
+    }
+
+    @Override
+    public void report(Collection<CollectionMetrics> metrics) {
+        for (CollectionMetrics collection : metrics) {
+            for (OperationMetrics operation : collection.getOperations()) {
+                if (operation.getCount() > 0) {
+                    _log.info(operation.toString());
+                }
+            }
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.vikinghammer.mongo.model;
 
 import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
 
 /**
  * This is a non-serializable page for internal use by MongoCollection.
@@ -20,6 +21,7 @@ import com.mongodb.DBCursor;
 public class DBPage {
 
     private DBCursor _cursor;
+    private Iterable<DBObject> _results;
     private Long _totalItems;
     private Integer _pageNumber;
     private Integer _pageSize;
@@ -51,6 +53,24 @@ public class DBPage {
         _cursor = cursor;
     }
 
+    /**
+     * The records on this page. For a page from a single collection this is
+     * the cursor; a page gathered from several shards has its records merged
+     * into a list instead, and has no cursor.
+     *
+     * @return the records on this page
+     */
+    public Iterable<DBObject> getResults() {
+        if (_results != null) {
+            return _results;
+        }
+        return _cursor;
+    }
+
+    public void setResults(Iterable<DBObject> results) {
+        _results = results;
+    }
+
     public Long getTotalItems() {
         return _totalItems;
     }
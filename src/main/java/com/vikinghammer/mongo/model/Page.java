@@ -1,21 +1,43 @@
 package com.vikinghammer.mongo.model;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.vikinghammer.mongo.codec.BinaryIO;
 
 /**
  * This is a serializable page for external use by services.
  *
  * You should get an instance of it from a DBPage, then populate its
  * list of items based on the DBPage's cursor.
+ *
+ * When serialized, the paging fields are written as varints, behind a format
+ * version byte. If a PageItemCodec is registered for the items' class (and
+ * they're all of that class), the items are written with it; otherwise
+ * they're serialized however they serialize themselves, which for models is
+ * nearly all of the page, so a codec is what makes a page smaller. Register
+ * the codec in every JVM that reads the pages too, eg at startup; for models,
+ * ModelFactory.registerPageCodec() does this. ModelFactory.pageToBytes()
+ * writes the same compact items without Java serialization around them.
  * 
  * @author Sean Schulte
  */
-public class Page<E> implements Serializable {
+public class Page<E> implements Externalizable {
 
     private static final long serialVersionUID = 1L;
 
+    private static final byte FORMAT_VERSION = 1;
+
+    // keyed by the name of the item class
+    private static final ConcurrentMap<String, PageItemCodec<?>> _itemCodecs = new ConcurrentHashMap<String, PageItemCodec<?>>();
+
     private List<E> _items;
     private Long _totalItems;
     private Integer _pageNumber;
@@ -57,5 +79,82 @@ public class Page<E> implements Serializable {
     public void setPageSize(Integer pageSize) {
         _pageSize = pageSize;
     }
+
+    /**
+     * Write items of exactly this class with the given codec whenever a page
+     * of them is serialized. Pages written with a codec can only be read where
+     * the same codec is registered.
+     *
+     * @param itemClass - the class of the items
+     * @param codec - writes and reads a single item
+     */
+    public static <T> void registerItemCodec(Class<T> itemClass, PageItemCodec<T> codec) {
+        _itemCodecs.put(itemClass.getName(), codec);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        BinaryIO.writeNullableLong(out, _totalItems);
+        BinaryIO.writeNullableInt(out, _pageNumber);
+        BinaryIO.writeNullableInt(out, _pageSize);
+        BinaryIO.writeVarInt(out, _items.size());
+        String itemClass = _itemClass();
+        PageItemCodec<E> codec = (itemClass == null) ? null : (PageItemCodec<E>)_itemCodecs.get(itemClass);
+        out.writeBoolean(codec != null);
+        if (codec != null) {
+            out.writeUTF(itemClass);
+            for (E item : _items) {
+                codec.write(out, item);
+            }
+        } else {
+            for (E item : _items) {
+                out.writeObject(item);
+            }
+        }
+    }
+
+    /**
+     * @return the class all the items share, or null if there are none, or they don't all share one
+     */
+    private String _itemClass() {
+        Class<?> itemClass = null;
+        for (E item : _items) {
+            if (item == null || (itemClass != null && item.getClass() != itemClass)) {
+                return null;
+            }
+            itemClass = item.getClass();
+        }
+        return (itemClass == null) ? null : itemClass.getName();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new InvalidClassException(getClass().getName(), String.format("Unknown format version %d", version));
+        }
+        _totalItems = BinaryIO.readNullableLong(in);
+        _pageNumber = BinaryIO.readNullableInt(in);
+        _pageSize = BinaryIO.readNullableInt(in);
+        int size = BinaryIO.readVarInt(in);
+        _items = new ArrayList<E>(size);
+        if (in.readBoolean()) {
+            String itemClass = in.readUTF();
+            PageItemCodec<E> codec = (PageItemCodec<E>)_itemCodecs.get(itemClass);
+            if (codec == null) {
+                throw new InvalidClassException(itemClass, "No PageItemCodec is registered for the items of this page");
+            }
+            for (int i = 0; i < size; i++) {
+                _items.add(codec.read(in));
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                _items.add((E)in.readObject());
+            }
+        }
+    }
 	
 }
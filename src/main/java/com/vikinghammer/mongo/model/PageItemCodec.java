@@ -0,0 +1,20 @@
+package com.vikinghammer.mongo.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes the items of a Page in a compact binary form when the page is
+ * serialized, instead of with Java serialization. Register one with
+ * Page.registerItemCodec(), or ModelFactory.registerPageCodec() for models.
+ *
+ * @author Sean Schulte
+ */
+public interface PageItemCodec<E> {
+
+    public void write(DataOutput out, E item) throws IOException;
+
+    public E read(DataInput in) throws IOException;
+
+}
@@ -1,26 +1,42 @@
 package com.vikinghammer.mongo.model;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 import com.mongodb.DBObject;
 import com.mongodb.BasicDBObject;
 
+import com.vikinghammer.mongo.codec.BinaryIO;
+import com.vikinghammer.mongo.db.ReadPreference;
+
 /**
  * An object to help build a query to get objects stored in a Mongo DB.
+ *
+ * When serialized, the query and sort are written as BSON and the paging
+ * as varints, behind a format version byte.
  * 
  * @author Sean Schulte
  */
-public class Query implements Serializable {
+public class Query implements Externalizable {
 
     private static final long serialVersionUID = 1L;
 
+    private static final byte FORMAT_VERSION = 1;
+
     private DBObject _queryMap;
+    private DBObject _sortMap;
     private Integer _pageSize;
     private Integer _pageNumber;
+    private ReadPreference _readPreference;
 
     public Query() {
         super();
         _queryMap = new BasicDBObject();
+        _sortMap = new BasicDBObject();
         _pageSize = 100;
         _pageNumber = 1;
     }
@@ -58,6 +74,23 @@ public class Query implements Serializable {
         return _pageNumber;
     }
 
+    /**
+     * Choose where this query should be read from, overriding the collection's
+     * read preference.
+     *
+     * @param readPreference
+     */
+    public void setReadPreference(ReadPreference readPreference) {
+        _readPreference = readPreference;
+    }
+
+    /**
+     * @return where this query should be read from, or null to use the collection's read preference
+     */
+    public ReadPreference getReadPreference() {
+        return _readPreference;
+    }
+
     /**
      * The "skip" value is how many results in the query to skip before
      * returning results; it's calculated based on the page size and 
@@ -100,6 +133,27 @@ public class Query implements Serializable {
         return add("$gt", key, value);
     }
 
+    /**
+     * Sort the results of this query by the given key. Call this more than
+     * once to sort by multiple keys; they're applied in the order you add them.
+     *
+     * @param key - the key to sort by
+     * @param direction - 1 for ascending, -1 for descending
+     * @return this Query object, for chaining
+     */
+    public Query sort(String key, int direction) {
+        _sortMap.put(key, direction);
+
+        return this;
+    }
+
+    /**
+     * @return the sort object to send to Mongo along with the query; empty if no sort was specified
+     */
+    public DBObject getSort() {
+        return _sortMap;
+    }
+
     /**
      * This is the query object that you can actually send to Mongo to
      * perform the query.
@@ -129,5 +183,40 @@ public class Query implements Serializable {
 
         return this;
     }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        BinaryIO.writeDBObject(out, _queryMap);
+        BinaryIO.writeDBObject(out, _sortMap);
+        BinaryIO.writeNullableInt(out, _pageSize);
+        BinaryIO.writeNullableInt(out, _pageNumber);
+        // by name, so reordering or adding read preferences doesn't change what old bytes mean
+        out.writeBoolean(_readPreference != null);
+        if (_readPreference != null) {
+            out.writeUTF(_readPreference.name());
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new InvalidClassException(getClass().getName(), String.format("Unknown format version %d", version));
+        }
+        _queryMap = BinaryIO.readDBObject(in);
+        _sortMap = BinaryIO.readDBObject(in);
+        _pageSize = BinaryIO.readNullableInt(in);
+        _pageNumber = BinaryIO.readNullableInt(in);
+        _readPreference = null;
+        if (in.readBoolean()) {
+            String readPreference = in.readUTF();
+            try {
+                _readPreference = ReadPreference.valueOf(readPreference);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidObjectException(String.format("Unknown read preference %s", readPreference));
+            }
+        }
+    }
 	
 }
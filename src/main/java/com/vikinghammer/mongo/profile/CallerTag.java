@@ -0,0 +1,41 @@
+package com.vikinghammer.mongo.profile;
+
+/**
+ * An optional tag describing who is making the current Mongo calls (eg, the
+ * name of the page or job), so it can be included when we log slow operations.
+ * The tag is kept per-thread; set it at the start of a unit of work and clear
+ * it at the end:
+ *
+ *   CallerTag.set("checkout");
+ *   try {
+ *       ...
+ *   } finally {
+ *       CallerTag.clear();
+ *   }
+ *
+ * @author Sean Schulte
+ */
+public class CallerTag {
+
+    private static final ThreadLocal<String> _tag = new ThreadLocal<String>();
+
+    private CallerTag() {
+        super();
+    }
+
+    public static void set(String tag) {
+        _tag.set(tag);
+    }
+
+    /**
+     * @return the tag for the current thread, or null if none has been set
+     */
+    public static String get() {
+        return _tag.get();
+    }
+
+    public static void clear() {
+        _tag.remove();
+    }
+
+}
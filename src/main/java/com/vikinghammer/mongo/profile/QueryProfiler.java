@@ -0,0 +1,276 @@
+package com.vikinghammer.mongo.profile;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+/**
+ * An opt-in profiler that groups the queries run through MongoCollection by
+ * their shape, and keeps track of how often each shape runs and how long it
+ * takes. Shapes that are slow periodically have an explain() sampled in the
+ * background, so we can see whether the server is actually using an index for
+ * them. Shapes we can't time (because they return a cursor) are only explained
+ * if you turn on setExplainUntimed(), since every explain is a real query.
+ *
+ * One profiler can be shared by all your collections; configure it with Spring
+ * and inject it into each MongoCollection you want to profile. Note that the
+ * init() method MUST be called before it's used, and shutdown() should be
+ * called when you're done with it.
+ *
+ * @author Sean Schulte
+ */
+public class QueryProfiler {
+
+	private Logger _log = LoggerFactory.getLogger(getClass());
+
+    private long _slowThresholdMillis;
+    private long _explainIntervalMillis;
+    private int _maxShapes;
+    private boolean _explainUntimed;
+
+    private final ConcurrentMap<String, QueryShapeStats> _stats;
+    private final ConcurrentMap<String, List<String>> _indices;
+
+    private ThreadPoolExecutor _explainExecutor;
+
+    public QueryProfiler() {
+        super();
+        _slowThresholdMillis = 100;
+        _explainIntervalMillis = 60000;
+        _maxShapes = 1000;
+        _explainUntimed = false;
+        _stats = new ConcurrentHashMap<String, QueryShapeStats>();
+        _indices = new ConcurrentHashMap<String, List<String>>();
+    }
+
+    /**
+     * Start the background thread that runs explain() for slow shapes. It has a
+     * small, bounded queue; if it falls behind, samples are simply dropped.
+     */
+    public void init() {
+        _explainExecutor = new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(100),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mongo-query-profiler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            },
+            new ThreadPoolExecutor.DiscardPolicy()
+        );
+    }
+
+    /**
+     * Stop the background explain thread.
+     */
+    public void shutdown() {
+        if (_explainExecutor != null) {
+            _explainExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tell the profiler which indices are declared on a collection, so it can
+     * tell which shapes aren't supported by any of them. MongoCollection does
+     * this for you in its init() method.
+     *
+     * @param collectionName
+     * @param indices - in the same format as MongoCollection.setIndices()
+     */
+    public void registerIndices(String collectionName, List<String> indices) {
+        if (indices == null) {
+            _indices.remove(collectionName);
+        } else {
+            _indices.put(collectionName, new ArrayList<String>(indices));
+        }
+    }
+
+    /**
+     * Record a single query.
+     *
+     * @param collection - the collection the query ran against
+     * @param operation - the name of the operation (find, findOne, count, etc)
+     * @param query - the query that ran
+     * @param elapsedNanos - how long it took, or -1 if it wasn't timed (ie, it returned a cursor)
+     */
+    public void record(DBCollection collection, String operation, DBObject query, long elapsedNanos) {
+        QueryShape shape = QueryShape.of(query);
+        String collectionName = collection.getName();
+        String key = String.format("%s %s %s", collectionName, operation, shape);
+
+        QueryShapeStats stats = _stats.get(key);
+        if (stats == null) {
+            if (_stats.size() >= _maxShapes) {
+                // don't let an unbounded number of shapes eat all our memory
+                return;
+            }
+            stats = new QueryShapeStats(
+                collectionName,
+                operation,
+                shape,
+                shape.isSupportedBy(_indices.get(collectionName))
+            );
+            QueryShapeStats existing = _stats.putIfAbsent(key, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        stats.record(elapsedNanos);
+
+        if (_shouldExplain(stats) && stats.claimExplain(System.currentTimeMillis(), _explainIntervalMillis)) {
+            _explain(collection, query, stats);
+        }
+    }
+
+    /**
+     * @return all the shapes we've seen, most frequent first
+     */
+    public List<QueryShapeStats> getShapes() {
+        List<QueryShapeStats> shapes = new ArrayList<QueryShapeStats>(_stats.values());
+        Collections.sort(shapes, new Comparator<QueryShapeStats>() {
+            @Override
+            public int compare(QueryShapeStats a, QueryShapeStats b) {
+                return Long.valueOf(b.getCount()).compareTo(a.getCount());
+            }
+        });
+        return shapes;
+    }
+
+    /**
+     * @return the shapes that aren't served by an index, most frequent first
+     */
+    public List<QueryShapeStats> getShapesWithoutIndex() {
+        List<QueryShapeStats> shapes = new ArrayList<QueryShapeStats>();
+        for (QueryShapeStats stats : getShapes()) {
+            if (!stats.isIndexed()) {
+                shapes.add(stats);
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * Build a human-readable report of the shapes that aren't served by an
+     * index, suitable for logging or exposing on an admin page.
+     *
+     * @return the report
+     */
+    public String getMissingIndexReport() {
+        List<QueryShapeStats> shapes = getShapesWithoutIndex();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d query shape(s) without a supporting index", shapes.size()));
+        for (QueryShapeStats stats : shapes) {
+            report.append(String.format("%n  %s", stats));
+            if (!stats.getShape().getFields().isEmpty()) {
+                report.append(String.format("%n    consider an index on: %s", _suggestIndex(stats.getShape())));
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Forget everything we've recorded.
+     */
+    public void reset() {
+        _stats.clear();
+    }
+
+    private boolean _shouldExplain(QueryShapeStats stats) {
+        if (_explainExecutor == null) {
+            return false;
+        }
+        if (stats.getTimedCount() == 0) {
+            // we can't time cursors, so only explain them if we've been asked to
+            return _explainUntimed;
+        }
+        return stats.getMeanMillis() >= _slowThresholdMillis;
+    }
+
+    private void _explain(final DBCollection collection, DBObject query, final QueryShapeStats stats) {
+        // copy the query, since the caller is free to change it after we return
+        final DBObject copy = (query == null) ? new BasicDBObject() : new BasicDBObject(query.toMap());
+        _explainExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stats.recordExplain(collection.find(copy).explain());
+                    if (!stats.isIndexed()) {
+                        _log.warn(String.format("Query shape is not using an index: %s", stats));
+                    }
+                } catch (RuntimeException e) {
+                    _log.warn(String.format("Unable to explain query shape %s on %s", stats.getShape(), stats.getCollectionName()), e);
+                }
+            }
+        });
+    }
+
+    private String _suggestIndex(QueryShape shape) {
+        StringBuilder index = new StringBuilder();
+        for (String field : shape.getFields()) {
+            if (index.length() > 0) {
+                index.append(",");
+            }
+            index.append(field);
+        }
+        return index.toString();
+    }
+
+    /**
+     * Queries that take at least this long on average are explained in the background.
+     *
+     * @param slowThresholdMillis
+     */
+    public void setSlowThresholdMillis(long slowThresholdMillis) {
+        _slowThresholdMillis = slowThresholdMillis;
+    }
+
+    /**
+     * Don't explain the same shape more often than this.
+     *
+     * @param explainIntervalMillis
+     */
+    public void setExplainIntervalMillis(long explainIntervalMillis) {
+        _explainIntervalMillis = explainIntervalMillis;
+    }
+
+    /**
+     * Stop tracking new shapes once we've seen this many.
+     *
+     * @param maxShapes
+     */
+    public void setMaxShapes(int maxShapes) {
+        _maxShapes = maxShapes;
+    }
+
+    /**
+     * Whether to explain shapes we can't time, like find() calls that return a
+     * cursor. They're still explained no more than once per explain interval
+     * (defaults to false).
+     *
+     * @param explainUntimed
+     */
+    public void setExplainUntimed(boolean explainUntimed) {
+        _explainUntimed = explainUntimed;
+    }
+
+}
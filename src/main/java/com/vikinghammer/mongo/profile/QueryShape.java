@@ -0,0 +1,223 @@
+package com.vikinghammer.mongo.profile;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import com.mongodb.DBObject;
+
+/**
+ * The "shape" of a Mongo query: the field names and operators it uses,
+ * with all of the values stripped out. Two queries that only differ in
+ * the values they search for have the same shape, so we can group them
+ * together when we're looking at how often (and how fast) they run.
+ *
+ * For example, {name: "sean", age: {$gt: 30}} has the shape
+ * {age: {$gt}, name: $eq}.
+ *
+ * @author Sean Schulte
+ */
+public class QueryShape {
+
+    private final String _shape;
+    private final List<String> _fields;
+    private final List<String> _andFields;
+    private final List<List<QueryShape>> _orClauses;
+
+    private QueryShape(String shape, List<String> fields, List<String> andFields, List<List<QueryShape>> orClauses) {
+        super();
+        _shape = shape;
+        _fields = Collections.unmodifiableList(fields);
+        _andFields = andFields;
+        _orClauses = orClauses;
+    }
+
+    /**
+     * Normalize a query into its shape.
+     *
+     * @param query - a standard Mongo query (may be null)
+     * @return the shape of the query
+     */
+    public static QueryShape of(DBObject query) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder shape = new StringBuilder();
+        _append(shape, query, fields);
+        List<String> andFields = new ArrayList<String>();
+        List<List<QueryShape>> orClauses = new ArrayList<List<QueryShape>>();
+        _collectConjuncts(query, andFields, orClauses);
+        return new QueryShape(shape.toString(), fields, andFields, orClauses);
+    }
+
+    /**
+     * @return the normalized shape, suitable for logging and grouping
+     */
+    public String getShape() {
+        return _shape;
+    }
+
+    /**
+     * @return the field names the query filters on, including the ones inside
+     *         $and/$or/$nor clauses (top-level fields first, in sorted order)
+     */
+    public List<String> getFields() {
+        return _fields;
+    }
+
+    /**
+     * Determine whether the given indices can be used to serve this shape.
+     * An index can be used if its first field is one of the fields every
+     * matching document has to match (the top-level fields, and the ones
+     * inside $and clauses). An $or only avoids a collection scan if every
+     * one of its clauses can use an index, so {$or: [{a: 1}, {b: 1}]} needs
+     * indices on both a and b. Fields inside $nor clauses never help.
+     * A query with no filter at all doesn't need an index.
+     *
+     * The indices use the same format as MongoCollection.setIndices(), so a
+     * compound index is comma-delimited ("fieldOne,fieldTwo").
+     *
+     * @param indices - the indices declared on the collection (may be null)
+     * @return true if the shape is supported by the indices
+     */
+    public boolean isSupportedBy(List<String> indices) {
+        return _fields.isEmpty() || _isSupportedBy(indices);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return (other instanceof QueryShape) && _shape.equals(((QueryShape)other)._shape);
+    }
+
+    @Override
+    public int hashCode() {
+        return _shape.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return _shape;
+    }
+
+    private boolean _isSupportedBy(List<String> indices) {
+        if (_andFields.contains("_id")) {
+            return true;
+        }
+        if (indices != null) {
+            for (String index : indices) {
+                String firstField = index.split(",")[0].trim();
+                if (_andFields.contains(firstField)) {
+                    return true;
+                }
+            }
+        }
+        for (List<QueryShape> clauses : _orClauses) {
+            boolean allSupported = !clauses.isEmpty();
+            for (QueryShape clause : clauses) {
+                if (!clause._isSupportedBy(indices)) {
+                    allSupported = false;
+                    break;
+                }
+            }
+            if (allSupported) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void _collectConjuncts(DBObject query, List<String> andFields, List<List<QueryShape>> orClauses) {
+        if (query == null) {
+            return;
+        }
+        for (String key : query.keySet()) {
+            Object value = query.get(key);
+            if ("$and".equals(key) && value instanceof List) {
+                for (Object clause : (List<?>)value) {
+                    if (clause instanceof DBObject) {
+                        _collectConjuncts((DBObject)clause, andFields, orClauses);
+                    }
+                }
+            } else if ("$or".equals(key) && value instanceof List) {
+                List<QueryShape> clauses = new ArrayList<QueryShape>();
+                for (Object clause : (List<?>)value) {
+                    if (clause instanceof DBObject) {
+                        clauses.add(of((DBObject)clause));
+                    }
+                }
+                orClauses.add(clauses);
+            } else if (!key.startsWith("$") && !andFields.contains(key)) {
+                andFields.add(key);
+            }
+        }
+    }
+
+    private static void _append(StringBuilder shape, DBObject query, List<String> fields) {
+        shape.append("{");
+        if (query != null) {
+            List<String> keys = new ArrayList<String>(query.keySet());
+            Collections.sort(keys);
+            boolean first = true;
+            for (String key : keys) {
+                if (!first) {
+                    shape.append(", ");
+                }
+                first = false;
+                if (fields != null && !key.startsWith("$") && !fields.contains(key)) {
+                    fields.add(key);
+                }
+                shape.append(key).append(": ");
+                _appendValue(shape, query.get(key), _isClauseOperator(key) ? fields : null);
+            }
+        }
+        shape.append("}");
+    }
+
+    private static void _appendValue(StringBuilder shape, Object value, List<String> fields) {
+        if (value instanceof List) {
+            // $or/$and/$nor clauses, or $in lists
+            shape.append("[");
+            boolean first = true;
+            for (Object item : (List<?>)value) {
+                if (item instanceof DBObject) {
+                    if (!first) {
+                        shape.append(", ");
+                    }
+                    first = false;
+                    _append(shape, (DBObject)item, fields);
+                }
+            }
+            shape.append("]");
+        } else if (value instanceof DBObject && _isOperatorObject((DBObject)value)) {
+            List<String> operators = new ArrayList<String>(((DBObject)value).keySet());
+            Collections.sort(operators);
+            shape.append("{");
+            boolean first = true;
+            for (String operator : operators) {
+                if (!first) {
+                    shape.append(", ");
+                }
+                first = false;
+                shape.append(operator);
+            }
+            shape.append("}");
+        } else {
+            shape.append("$eq");
+        }
+    }
+
+    private static boolean _isClauseOperator(String key) {
+        return "$and".equals(key) || "$or".equals(key) || "$nor".equals(key);
+    }
+
+    private static boolean _isOperatorObject(DBObject value) {
+        if (value.keySet().isEmpty()) {
+            return false;
+        }
+        for (String key : value.keySet()) {
+            if (!key.startsWith("$")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.vikinghammer.mongo.profile;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.DBObject;
+
+/**
+ * Frequency, latency and index usage for a single query shape against a
+ * single collection and operation.
+ *
+ * Counters are updated without locking; the explain fields are only ever
+ * written by the profiler's background thread, and may lag behind.
+ *
+ * @author Sean Schulte
+ */
+public class QueryShapeStats {
+
+    private final String _collectionName;
+    private final String _operation;
+    private final QueryShape _shape;
+    private final boolean _indexDeclared;
+
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _timedCount = new AtomicLong();
+    private final AtomicLong _totalNanos = new AtomicLong();
+    private final AtomicLong _maxNanos = new AtomicLong();
+    private final AtomicLong _lastExplainRequested = new AtomicLong();
+
+    private volatile String _explainCursor;
+    private volatile Long _explainScanned;
+    private volatile Long _explainReturned;
+    private volatile Long _explainMillis;
+
+    public QueryShapeStats(
+        String collectionName,
+        String operation,
+        QueryShape shape,
+        boolean indexDeclared
+    ) {
+        super();
+        _collectionName = collectionName;
+        _operation = operation;
+        _shape = shape;
+        _indexDeclared = indexDeclared;
+    }
+
+    void record(long elapsedNanos) {
+        _count.incrementAndGet();
+        if (elapsedNanos >= 0) {
+            _timedCount.incrementAndGet();
+            _totalNanos.addAndGet(elapsedNanos);
+            long max = _maxNanos.get();
+            while (elapsedNanos > max && !_maxNanos.compareAndSet(max, elapsedNanos)) {
+                max = _maxNanos.get();
+            }
+        }
+    }
+
+    /**
+     * Claim the right to run the next explain for this shape. Only one thread
+     * will win for each interval.
+     */
+    boolean claimExplain(long now, long intervalMillis) {
+        long last = _lastExplainRequested.get();
+        if (last != 0 && now - last < intervalMillis) {
+            return false;
+        }
+        return _lastExplainRequested.compareAndSet(last, now);
+    }
+
+    void recordExplain(DBObject explain) {
+        _explainCursor = String.valueOf(explain.get("cursor"));
+        _explainScanned = _asLong(explain.get("nscanned"));
+        _explainReturned = _asLong(explain.get("n"));
+        _explainMillis = _asLong(explain.get("millis"));
+    }
+
+    public String getCollectionName() {
+        return _collectionName;
+    }
+
+    public String getOperation() {
+        return _operation;
+    }
+
+    public QueryShape getShape() {
+        return _shape;
+    }
+
+    /**
+     * @return true if one of the indices declared on the collection should serve this shape
+     */
+    public boolean isIndexDeclared() {
+        return _indexDeclared;
+    }
+
+    /**
+     * Whether the shape is actually served by an index. If we've sampled an
+     * explain, we trust what the server told us; otherwise we fall back to
+     * comparing the shape against the declared indices.
+     *
+     * @return true if the shape is served by an index
+     */
+    public boolean isIndexed() {
+        if (_explainCursor != null) {
+            return !_explainCursor.startsWith("BasicCursor");
+        }
+        return _indexDeclared;
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    /**
+     * @return the number of calls we have latency for; cursor-returning finds are counted but not timed
+     */
+    public long getTimedCount() {
+        return _timedCount.get();
+    }
+
+    public double getMeanMillis() {
+        long timed = _timedCount.get();
+        if (timed == 0) {
+            return 0;
+        }
+        return (_totalNanos.get() / (double)timed) / 1000000.0;
+    }
+
+    public double getMaxMillis() {
+        return _maxNanos.get() / 1000000.0;
+    }
+
+    /**
+     * @return the cursor type from the last sampled explain (eg, "BasicCursor" or "BtreeCursor name_1"), or null
+     */
+    public String getExplainCursor() {
+        return _explainCursor;
+    }
+
+    public Long getExplainScanned() {
+        return _explainScanned;
+    }
+
+    public Long getExplainReturned() {
+        return _explainReturned;
+    }
+
+    public Long getExplainMillis() {
+        return _explainMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%s.%s %s count=%d mean=%.2fms max=%.2fms indexed=%s cursor=%s scanned=%s returned=%s",
+            _collectionName,
+            _operation,
+            _shape,
+            getCount(),
+            getMeanMillis(),
+            getMaxMillis(),
+            isIndexed(),
+            _explainCursor,
+            _explainScanned,
+            _explainReturned
+        );
+    }
+
+    private static Long _asLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number)value).longValue();
+        }
+        return null;
+    }
+
+}
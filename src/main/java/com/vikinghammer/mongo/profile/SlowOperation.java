@@ -0,0 +1,109 @@
+package com.vikinghammer.mongo.profile;
+
+import com.mongodb.DBObject;
+
+/**
+ * Everything we know about a single operation, for the slow-operation log.
+ * The setters return this object, for chaining.
+ *
+ * @author Sean Schulte
+ */
+public class SlowOperation {
+
+    private final String _collectionName;
+    private final String _operation;
+
+    private DBObject _query;
+    private DBObject _sort;
+    private Integer _skip;
+    private Integer _limit;
+    private long _documents;
+    private long _elapsedNanos;
+    private long _serverNanos;
+    private long _buildNanos;
+
+    public SlowOperation(String collectionName, String operation) {
+        super();
+        _collectionName = collectionName;
+        _operation = operation;
+        _documents = -1;
+        _serverNanos = -1;
+        _buildNanos = -1;
+    }
+
+    public SlowOperation query(DBObject query) {
+        _query = query;
+        return this;
+    }
+
+    public SlowOperation sort(DBObject sort) {
+        _sort = sort;
+        return this;
+    }
+
+    public SlowOperation skip(Integer skip) {
+        _skip = skip;
+        return this;
+    }
+
+    public SlowOperation limit(Integer limit) {
+        _limit = limit;
+        return this;
+    }
+
+    public SlowOperation documents(long documents) {
+        _documents = documents;
+        return this;
+    }
+
+    /**
+     * @param elapsedNanos - total time for the operation
+     * @param serverNanos - time spent waiting on the server (including fetching more batches), or -1 if unknown
+     * @param buildNanos - time spent building model objects, or -1 if unknown
+     * @return this SlowOperation, for chaining
+     */
+    public SlowOperation elapsed(long elapsedNanos, long serverNanos, long buildNanos) {
+        _elapsedNanos = elapsedNanos;
+        _serverNanos = serverNanos;
+        _buildNanos = buildNanos;
+        return this;
+    }
+
+    public long getElapsedNanos() {
+        return _elapsedNanos;
+    }
+
+    /**
+     * Describe the operation for the log. The query is reduced to its shape,
+     * so no values (which might be sensitive) end up in the log.
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%s.%s took %.1fms", _collectionName, _operation, _elapsedNanos / 1000000.0));
+        if (_serverNanos >= 0 && _buildNanos >= 0) {
+            out.append(String.format(" (server %.1fms, build %.1fms)", _serverNanos / 1000000.0, _buildNanos / 1000000.0));
+        }
+        if (_query != null) {
+            out.append(" query=").append(QueryShape.of(_query));
+        }
+        if (_sort != null && !_sort.keySet().isEmpty()) {
+            out.append(" sort=").append(_sort);
+        }
+        if (_skip != null) {
+            out.append(" skip=").append(_skip);
+        }
+        if (_limit != null) {
+            out.append(" limit=").append(_limit);
+        }
+        if (_documents >= 0) {
+            out.append(" documents=").append(_documents);
+        }
+        String caller = CallerTag.get();
+        if (caller != null) {
+            out.append(" caller=").append(caller);
+        }
+        return out.toString();
+    }
+
+}
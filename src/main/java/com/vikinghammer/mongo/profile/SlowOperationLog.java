@@ -0,0 +1,84 @@
+package com.vikinghammer.mongo.profile;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+/**
+ * Logs operations that take longer than a threshold. So that the log can't
+ * become a bottleneck when everything is slow at once, only one in every
+ * sampleRate slow operations is considered, and at most maxPerSecond lines
+ * are written each second; the number of lines we skipped is included in the
+ * next line we do write.
+ *
+ * @author Sean Schulte
+ */
+public class SlowOperationLog {
+
+    private final Logger _log;
+    private final long _thresholdNanos;
+    private final int _sampleRate;
+    private final int _maxPerSecond;
+
+    private final AtomicLong _slowCount = new AtomicLong();
+    private final AtomicLong _suppressed = new AtomicLong();
+    private final AtomicLong _windowStart = new AtomicLong();
+    private final AtomicLong _windowCount = new AtomicLong();
+
+    /**
+     * @param log - the logger to write to
+     * @param thresholdMillis - operations taking at least this long are slow
+     * @param sampleRate - only consider one in this many slow operations (1 to consider them all)
+     * @param maxPerSecond - never write more than this many lines per second
+     */
+    public SlowOperationLog(Logger log, long thresholdMillis, int sampleRate, int maxPerSecond) {
+        super();
+        _log = log;
+        _thresholdNanos = thresholdMillis * 1000000L;
+        _sampleRate = Math.max(1, sampleRate);
+        _maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * @param elapsedNanos
+     * @return true if an operation that took this long is slow
+     */
+    public boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= _thresholdNanos;
+    }
+
+    /**
+     * Log the operation, if it's slow and it makes it through the sampling.
+     *
+     * @param operation
+     */
+    public void log(SlowOperation operation) {
+        if (!isSlow(operation.getElapsedNanos())) {
+            return;
+        }
+        if (_slowCount.incrementAndGet() % _sampleRate != 0) {
+            return;
+        }
+        if (!_acquire()) {
+            _suppressed.incrementAndGet();
+            return;
+        }
+
+        long suppressed = _suppressed.getAndSet(0);
+        if (suppressed > 0) {
+            _log.warn(String.format("Slow operation: %s (%d more suppressed)", operation, suppressed));
+        } else {
+            _log.warn(String.format("Slow operation: %s", operation));
+        }
+    }
+
+    private boolean _acquire() {
+        long now = System.currentTimeMillis();
+        long windowStart = _windowStart.get();
+        if (now - windowStart >= 1000 && _windowStart.compareAndSet(windowStart, now)) {
+            _windowCount.set(0);
+        }
+        return _windowCount.incrementAndGet() <= _maxPerSecond;
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.vikinghammer.mongo.query;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.mongodb.DBObject;
+
+import com.vikinghammer.mongo.model.MongoModel;
+import com.vikinghammer.mongo.model.Page;
+import com.vikinghammer.mongo.model.Query;
+
+/**
+ * The non-blocking counterpart of MongoQueryRunner: each method starts the
+ * query in the background and returns straight away.
+ *
+ * @author Sean Schulte
+ */
+public interface AsyncMongoQueryRunner<T extends MongoModel> {
+
+    public CompletableFuture<T> oneAsync(DBObject query);
+
+    public CompletableFuture<T> oneAsync(DBObject query, DBObject sort);
+
+    public CompletableFuture<List<T>> listAsync(DBObject query);
+
+    public CompletableFuture<List<T>> listAsync(DBObject query, DBObject sort);
+
+    public CompletableFuture<Page<T>> pageAsync(Query query);
+
+}
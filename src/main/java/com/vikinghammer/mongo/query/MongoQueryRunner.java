@@ -5,6 +5,7 @@ import java.util.List;
 import com.mongodb.DBObject;
 import com.mongodb.DBCursor;
 
+import com.vikinghammer.mongo.collection.Deadline;
 import com.vikinghammer.mongo.model.MongoModel;
 
 /**
@@ -24,4 +25,29 @@ public interface MongoQueryRunner<T extends MongoModel> {
 
     public List<T> list(DBObject query, DBObject sort);
 
+    /**
+     * Get a single model, giving up if it takes longer than the deadline
+     * allows. By default this ignores the deadline, so existing
+     * implementations still compile; MongoQueryRunnerImpl enforces it.
+     *
+     * @param query
+     * @param deadline
+     */
+    public default T oneWithin(DBObject query, Deadline deadline) {
+        return one(query);
+    }
+
+    /**
+     * List the matching models, giving up if it takes longer than the
+     * deadline allows. By default this ignores the deadline, so existing
+     * implementations still compile; MongoQueryRunnerImpl enforces it.
+     *
+     * @param query
+     * @param sort - may be null
+     * @param deadline
+     */
+    public default List<T> listWithin(DBObject query, DBObject sort, Deadline deadline) {
+        return (sort == null) ? list(query) : list(query, sort);
+    }
+
 }
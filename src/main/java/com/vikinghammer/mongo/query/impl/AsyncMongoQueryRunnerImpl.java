@@ -0,0 +1,84 @@
+package com.vikinghammer.mongo.query.impl;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import com.vikinghammer.mongo.async.AsyncExecutor;
+import com.vikinghammer.mongo.model.MongoModel;
+import com.vikinghammer.mongo.model.Page;
+import com.vikinghammer.mongo.model.Query;
+import com.vikinghammer.mongo.query.AsyncMongoQueryRunner;
+
+import com.mongodb.DBObject;
+
+/**
+ * Runs the queries of a MongoQueryRunnerImpl on an AsyncExecutor.
+ *
+ * @author Sean Schulte
+ */
+public class AsyncMongoQueryRunnerImpl<T extends MongoModel> implements AsyncMongoQueryRunner<T> {
+
+    private MongoQueryRunnerImpl<T> _queryRunner;
+    private AsyncExecutor _executor;
+
+    public AsyncMongoQueryRunnerImpl(
+        MongoQueryRunnerImpl<T> queryRunner,
+        AsyncExecutor executor
+    ) {
+        super();
+        _queryRunner = queryRunner;
+        _executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<T> oneAsync(final DBObject query) {
+        return _executor.submit(new Callable<T>() {
+            @Override
+            public T call() {
+                return _queryRunner.one(query);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<T> oneAsync(final DBObject query, final DBObject sort) {
+        return _executor.submit(new Callable<T>() {
+            @Override
+            public T call() {
+                return _queryRunner.one(query, sort);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<T>> listAsync(final DBObject query) {
+        return _executor.submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return _queryRunner.list(query);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<T>> listAsync(final DBObject query, final DBObject sort) {
+        return _executor.submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return _queryRunner.list(query, sort);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Page<T>> pageAsync(final Query query) {
+        return _executor.submit(new Callable<Page<T>>() {
+            @Override
+            public Page<T> call() {
+                return _queryRunner.page(query);
+            }
+        });
+    }
+
+}
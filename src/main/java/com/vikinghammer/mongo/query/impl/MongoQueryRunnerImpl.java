@@ -2,13 +2,23 @@ package com.vikinghammer.mongo.query.impl;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.vikinghammer.mongo.collection.Deadline;
 import com.vikinghammer.mongo.collection.MongoCollection;
+import com.vikinghammer.mongo.exception.DeadlineExceededException;
 import com.vikinghammer.mongo.factory.ModelFactory;
+import com.vikinghammer.mongo.metrics.OperationType;
+import com.vikinghammer.mongo.model.DBPage;
 import com.vikinghammer.mongo.model.MongoModel;
+import com.vikinghammer.mongo.model.Page;
+import com.vikinghammer.mongo.model.Query;
+import com.vikinghammer.mongo.profile.SlowOperation;
+import com.vikinghammer.mongo.profile.SlowOperationLog;
 import com.vikinghammer.mongo.query.MongoQueryRunner;
 
 import com.mongodb.DBObject;
@@ -37,40 +47,192 @@ public class MongoQueryRunnerImpl<T extends MongoModel> implements MongoQueryRun
 
     @Override
     public T one(DBObject query) {
-        DBObject doc = _collection.findOne(query);
+        long start = System.nanoTime();
+        try {
+            DBObject doc = _collection.findOne(query);
 
-        return _modelFactory.build(doc);
+            T model = _modelFactory.build(doc);
+            _collection.getMetrics().success(OperationType.QUERY_ONE, System.nanoTime() - start, (model == null) ? 0 : 1);
+            return model;
+        } catch (RuntimeException e) {
+            _collection.getMetrics().failure(OperationType.QUERY_ONE, System.nanoTime() - start, e);
+            throw e;
+        }
     }
 
     @Override
     public T one(DBObject query, DBObject sort) {
-        List<DBObject> list = _collection.find(query).sort(sort).limit(1).toArray();
-        if (!list.isEmpty()) {
-            return _modelFactory.build(list.get(0));
-        } else {
-            return null;
+        long start = System.nanoTime();
+        try {
+            T model = null;
+            List<DBObject> list = _collection.find(query).sort(sort).limit(1).toArray();
+            if (!list.isEmpty()) {
+                model = _modelFactory.build(list.get(0));
+            }
+            _collection.getMetrics().success(OperationType.QUERY_ONE, System.nanoTime() - start, (model == null) ? 0 : 1);
+            return model;
+        } catch (RuntimeException e) {
+            _collection.getMetrics().failure(OperationType.QUERY_ONE, System.nanoTime() - start, e);
+            throw e;
         }
     }
 
     @Override
     public List<T> list(Iterable<DBObject> cursor) {
-        List<T> models = new ArrayList<T>();
-        for (DBObject obj : cursor) {
-            models.add(_modelFactory.build(obj));
-        }
-        return models;
+        return _list(cursor.iterator(), null, null, null, null);
     }
 
     @Override
     public List<T> list(DBObject query) {
         DBCursor cursor = _collection.find(query);
-        return list(cursor);
+        return _list(cursor, query, null, null, null);
     }
 
     @Override
     public List<T> list(DBObject query, DBObject sort) {
         DBCursor cursor = _collection.find(query).sort(sort);
-        return list(cursor);
+        return _list(cursor, query, sort, null, null);
+    }
+
+    /**
+     * Run a Query and build a page of models from the results. This isn't part
+     * of MongoQueryRunner, so existing implementations of it still compile.
+     *
+     * @param query
+     */
+    public Page<T> page(Query query) {
+        DBPage dbPage = _collection.find(query);
+
+        @SuppressWarnings("unchecked")
+        Page<T> page = dbPage.getPage();
+        for (T model : _list(_results(dbPage), query.getQuery(), query.getSort(), query.getSkip(), query.getLimit())) {
+            page.addItem(model);
+        }
+        return page;
+    }
+
+    /**
+     * Get a single model, giving up if it takes longer than the deadline allows.
+     *
+     * @param query
+     * @param deadline
+     */
+    @Override
+    public T oneWithin(final DBObject query, Deadline deadline) {
+        return _collection.call(deadline, OperationType.QUERY_ONE.getName(), new Callable<T>() {
+            @Override
+            public T call() {
+                return one(query);
+            }
+        });
+    }
+
+    /**
+     * List the matching models, giving up (and closing the cursor) if it takes
+     * longer than the deadline allows.
+     *
+     * @param query
+     * @param sort - may be null
+     * @param deadline
+     */
+    @Override
+    public List<T> listWithin(final DBObject query, final DBObject sort, final Deadline deadline) {
+        return _collection.call(deadline, OperationType.QUERY_LIST.getName(), new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                DBCursor cursor = deadline.track(_collection.find(query));
+                if (sort != null) {
+                    cursor.sort(sort);
+                }
+                return _list(cursor, query, sort, null, null);
+            }
+        });
+    }
+
+    /**
+     * Run a Query and build a page of models from the results, giving up (and
+     * closing the cursor) if it takes longer than the deadline allows. This
+     * (like page) isn't part of MongoQueryRunner.
+     *
+     * @param query
+     * @param deadline
+     */
+    public Page<T> pageWithin(final Query query, final Deadline deadline) {
+        return _collection.call(deadline, OperationType.QUERY_LIST.getName(), new Callable<Page<T>>() {
+            @Override
+            public Page<T> call() {
+                DBPage dbPage = _collection.find(query);
+                deadline.track(dbPage.getCursor());
+
+                @SuppressWarnings("unchecked")
+                Page<T> page = dbPage.getPage();
+                for (T model : _list(_results(dbPage), query.getQuery(), query.getSort(), query.getSkip(), query.getLimit())) {
+                    page.addItem(model);
+                }
+                return page;
+            }
+        });
+    }
+
+    /**
+     * Read a page's own cursor, rather than the copy its iterator() would
+     * give us, so that closing the cursor (eg, when a deadline passes) stops
+     * the read, and the cursor is done with once we've read it.
+     */
+    private static Iterator<DBObject> _results(DBPage dbPage) {
+        if (dbPage.getCursor() != null) {
+            return dbPage.getCursor();
+        }
+        return dbPage.getResults().iterator();
+    }
+
+    /**
+     * Build a model object for each document in the cursor, keeping track of
+     * how much of the time is spent building models (as opposed to waiting on
+     * the server for the documents), so we can tell which one is to blame
+     * when it's slow.
+     *
+     * The query, sort, skip and limit are only used to describe the operation
+     * in the slow-operation log; any of them may be null.
+     */
+    private List<T> _list(Iterator<DBObject> iterator, DBObject query, DBObject sort, Integer skip, Integer limit) {
+        long start = System.nanoTime();
+        long buildNanos = 0;
+        try {
+            List<T> models = new ArrayList<T>();
+            Deadline deadline = Deadline.current();
+            while (iterator.hasNext()) {
+                if (deadline != null && deadline.isExpired()) {
+                    throw new DeadlineExceededException(_collection.getCollectionName(), OperationType.QUERY_LIST.getName(), deadline.getTimeoutMillis());
+                }
+                DBObject obj = iterator.next();
+                long buildStart = System.nanoTime();
+                models.add(_modelFactory.build(obj));
+                buildNanos += System.nanoTime() - buildStart;
+            }
+
+            long elapsedNanos = System.nanoTime() - start;
+            _collection.getMetrics().success(OperationType.QUERY_LIST, elapsedNanos, models.size());
+
+            SlowOperationLog slowOperationLog = _collection.getSlowOperationLog();
+            if (slowOperationLog != null && slowOperationLog.isSlow(elapsedNanos)) {
+                slowOperationLog.log(new SlowOperation(_collection.getCollectionName(), OperationType.QUERY_LIST.getName())
+                    .query(query)
+                    .sort(sort)
+                    .skip(skip)
+                    .limit(limit)
+                    .documents(models.size())
+                    .elapsed(elapsedNanos, elapsedNanos - buildNanos, buildNanos));
+            }
+            return models;
+        } catch (RuntimeException e) {
+            if (iterator instanceof DBCursor) {
+                // give the cursor's turn in the bulkhead back, rather than waiting for it to be collected
+                ((DBCursor)iterator).close();
+            }
+            _collection.getMetrics().failure(OperationType.QUERY_LIST, System.nanoTime() - start, e);
+            throw e;
+        }
     }
 
 }
@@ -0,0 +1,208 @@
+package com.vikinghammer.mongo.collection;
+
+import java.util.Date;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.bson.types.ObjectId;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import com.vikinghammer.mongo.db.MongoDatabaseConnector;
+import com.vikinghammer.mongo.factory.ModelFactory;
+import com.vikinghammer.mongo.model.MongoModel;
+
+/**
+ * Runs a ChangeFeed against a local mongod (localhost:27017), both polling a
+ * collection that isn't capped and tailing one that is. Skipped if there's
+ * no mongod to talk to.
+ *
+ * @author Sean Schulte
+ */
+public class ChangeFeedTest {
+
+    private MongoDatabaseConnector _connector;
+    private MongoCollection _collection;
+    private ChangeFeed<NamedModel> _feed;
+    private BlockingQueue<NamedModel> _received;
+
+    @Before
+    public void setUp() throws Exception {
+        _connector = new MongoDatabaseConnector();
+        _connector.setHost("localhost");
+        _connector.setDatabaseName("mongo_util_test");
+        _connector.setConnectionsPerHost(10);
+        _connector.setConnectTimeout(1000);
+        _connector.init();
+        try {
+            _connector.getCollection("change_feed_test").getDB().command(new BasicDBObject("ping", 1)).throwOnError();
+        } catch (RuntimeException e) {
+            _connector.shutdown();
+            _connector = null;
+            Assume.assumeNoException(e);
+        }
+
+        _collection = new MongoCollection();
+        _collection.setDatabaseConnector(_connector);
+        _collection.setCollectionName("change_feed_test");
+        _collection.init();
+        _collection.getDBCollection().drop();
+
+        _received = new LinkedBlockingQueue<NamedModel>();
+        _feed = _collection.changeFeed(new NamedModelFactory());
+        _feed.setPollIntervalMillis(50);
+        _feed.setReconnectDelayMillis(50);
+        _subscribe();
+    }
+
+    @After
+    public void tearDown() {
+        if (_feed != null) {
+            _feed.stop();
+        }
+        if (_collection != null) {
+            _collection.getDBCollection().drop();
+            _collection.shutdown();
+        }
+        if (_connector != null) {
+            _connector.shutdown();
+        }
+    }
+
+    @Test
+    public void skipsDocumentsThatExistedBeforeStart() throws Exception {
+        _collection.save(_doc(new ObjectId(), "before"));
+        _feed.start();
+        _collection.save(_doc(new ObjectId(), "after"));
+
+        assertEquals("after", _next().getName());
+        assertNull(_received.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void deliversDocumentsCommittedOutOfOrder() throws Exception {
+        _feed.start();
+        _collection.save(_doc(new ObjectId(), "first"));
+        assertEquals("first", _next().getName());
+
+        // an _id generated before the last one we read, as another client with a slow clock would
+        ObjectId earlier = new ObjectId(new Date(System.currentTimeMillis() - 2000));
+        _collection.save(_doc(earlier, "late"));
+        assertEquals("late", _next().getName());
+
+        // and nothing in the lookback is delivered twice
+        assertNull(_received.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void tailsACappedCollection() throws Exception {
+        _makeCapped();
+        _collection.save(_doc(new ObjectId(), "before"));
+        _feed.start();
+        _collection.save(_doc(new ObjectId(), "first"));
+        _collection.save(_doc(new ObjectId(), "second"));
+
+        assertEquals("first", _next().getName());
+        assertEquals("second", _next().getName());
+        assertNull(_received.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void tailsACappedCollectionThatStartsEmpty() throws Exception {
+        _makeCapped();
+        // the tailable cursor dies right away on an empty collection, so the feed has to reopen it
+        _feed.start();
+        _collection.save(_doc(new ObjectId(), "first"));
+
+        assertEquals("first", _next().getName());
+        assertNull(_received.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void restartsWhereItStopped() throws Exception {
+        _feed.start();
+        _collection.save(_doc(new ObjectId(), "first"));
+        assertEquals("first", _next().getName());
+
+        _feed.stop();
+        _collection.save(_doc(new ObjectId(), "while stopped"));
+        _subscribe();
+        _feed.start();
+        _collection.save(_doc(new ObjectId(), "after"));
+
+        assertEquals("while stopped", _next().getName());
+        assertEquals("after", _next().getName());
+        assertNull(_received.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    private void _subscribe() {
+        _feed.subscribe(new ChangeFeedListener<NamedModel>() {
+            @Override
+            public void onChange(NamedModel model) {
+                _received.add(model);
+            }
+        }, 100);
+    }
+
+    private void _makeCapped() {
+        _collection.getDBCollection().drop();
+        DBObject options = new BasicDBObject("capped", true);
+        options.put("size", 1024 * 1024);
+        _collection.getDBCollection().getDB().createCollection("change_feed_test", options);
+        assertTrue(_collection.getDBCollection().isCapped());
+    }
+
+    private NamedModel _next() throws InterruptedException {
+        NamedModel model = _received.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Nothing was delivered", model);
+        return model;
+    }
+
+    private static DBObject _doc(ObjectId id, String name) {
+        DBObject doc = new BasicDBObject("_id", id);
+        doc.put("name", name);
+        return doc;
+    }
+
+    public static class NamedModel extends MongoModel {
+
+        private String _name;
+
+        public String getName() {
+            return _name;
+        }
+
+        public void setName(String name) {
+            _name = name;
+        }
+
+    }
+
+    private static class NamedModelFactory extends ModelFactory<NamedModel> {
+
+        @Override
+        protected NamedModel doCreateModel(final DBObject doc) {
+            NamedModel model = new NamedModel();
+            model.setName((String)doc.get("name"));
+            return model;
+        }
+
+        @Override
+        protected void doFillDBObject(DBObject doc, final NamedModel model) {
+            doc.put("name", model.getName());
+        }
+
+    }
+
+}
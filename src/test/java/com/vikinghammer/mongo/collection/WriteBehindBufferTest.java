@@ -0,0 +1,184 @@
+package com.vikinghammer.mongo.collection;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.bson.types.ObjectId;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import com.vikinghammer.mongo.dao.AbstractMongoDao;
+import com.vikinghammer.mongo.db.MongoDatabaseConnector;
+import com.vikinghammer.mongo.exception.VersionMismatchException;
+import com.vikinghammer.mongo.factory.ModelFactory;
+import com.vikinghammer.mongo.model.MongoModel;
+
+/**
+ * Stores models through a DAO whose collection buffers updates, against a
+ * local mongod (localhost:27017). Skipped if there's no mongod to talk to.
+ *
+ * @author Sean Schulte
+ */
+public class WriteBehindBufferTest {
+
+    private MongoDatabaseConnector _connector;
+    private MongoCollection _collection;
+    private CounterDao _dao;
+    private List<DBObject> _conflicts;
+
+    @Before
+    public void setUp() throws Exception {
+        _connector = new MongoDatabaseConnector();
+        _connector.setHost("localhost");
+        _connector.setDatabaseName("mongo_util_test");
+        _connector.setConnectionsPerHost(10);
+        _connector.setConnectTimeout(1000);
+        _connector.init();
+        try {
+            _connector.getCollection("write_behind_test").getDB().command(new BasicDBObject("ping", 1)).throwOnError();
+        } catch (RuntimeException e) {
+            _connector.shutdown();
+            _connector = null;
+            Assume.assumeNoException(e);
+        }
+
+        _conflicts = new CopyOnWriteArrayList<DBObject>();
+        _collection = new MongoCollection();
+        _collection.setDatabaseConnector(_connector);
+        _collection.setCollectionName("write_behind_test");
+        // long enough that only our own flush() calls save anything
+        _collection.setWriteBehindMillis(60000);
+        _collection.setWriteBehindConflictListener(new WriteBehindConflictListener() {
+            @Override
+            public void onConflict(DBObject doc, VersionMismatchException error) {
+                _conflicts.add(doc);
+            }
+        });
+        _collection.init();
+        _collection.getDBCollection().drop();
+
+        _dao = new CounterDao(_collection);
+    }
+
+    @After
+    public void tearDown() {
+        if (_collection != null) {
+            _collection.getDBCollection().drop();
+            _collection.shutdown();
+        }
+        if (_connector != null) {
+            _connector.shutdown();
+        }
+    }
+
+    @Test
+    public void storingTheSameModelAfterAFlushKeepsEveryUpdate() {
+        Counter counter = new Counter();
+        _dao.store(counter);
+
+        for (int i = 1; i <= 3; i++) {
+            counter.setCount(i);
+            _dao.store(counter);
+            _buffer().flush();
+        }
+
+        assertEquals(3, _stored(counter).getCount());
+        assertEquals(0, _buffer().getConflicts());
+        assertTrue(_conflicts.isEmpty());
+    }
+
+    @Test
+    public void storingAModelLoadedBeforeAFlushKeepsTheUpdate() {
+        Counter counter = new Counter();
+        _dao.store(counter);
+        counter.setCount(1);
+        _dao.store(counter);
+
+        // loaded from the pending update, which is then saved
+        Counter loaded = _dao.getById(counter.getId());
+        _buffer().flush();
+
+        loaded.setCount(2);
+        _dao.store(loaded);
+        _buffer().flush();
+
+        assertEquals(2, _stored(counter).getCount());
+        assertEquals(0, _buffer().getConflicts());
+    }
+
+    @Test
+    public void conflictWithAnotherWriterIsReported() {
+        Counter counter = new Counter();
+        _dao.store(counter);
+
+        // someone else saves it without going through the buffer
+        DBObject other = _collection.findOne(new BasicDBObject("_id", new ObjectId(counter.getId())));
+        other.put("count", 10);
+        _collection.save(other);
+
+        counter.setCount(1);
+        _dao.store(counter);
+        _buffer().flush();
+
+        assertEquals(10, _stored(counter).getCount());
+        assertEquals(1, _buffer().getConflicts());
+        assertEquals(1, _conflicts.size());
+        assertEquals(1, _conflicts.get(0).get("count"));
+    }
+
+    private WriteBehindBuffer _buffer() {
+        return _collection.getWriteBehindBuffer();
+    }
+
+    private Counter _stored(Counter counter) {
+        DBObject doc = _collection.getDBCollection().findOne(new BasicDBObject("_id", new ObjectId(counter.getId())));
+        return new CounterFactory().build(doc);
+    }
+
+    public static class Counter extends MongoModel {
+
+        private int _count;
+
+        public int getCount() {
+            return _count;
+        }
+
+        public void setCount(int count) {
+            _count = count;
+        }
+
+    }
+
+    private static class CounterFactory extends ModelFactory<Counter> {
+
+        @Override
+        protected Counter doCreateModel(final DBObject doc) {
+            Counter counter = new Counter();
+            counter.setCount(((Number)doc.get("count")).intValue());
+            return counter;
+        }
+
+        @Override
+        protected void doFillDBObject(DBObject doc, final Counter counter) {
+            doc.put("count", counter.getCount());
+        }
+
+    }
+
+    private static class CounterDao extends AbstractMongoDao<Counter> {
+
+        CounterDao(MongoCollection collection) {
+            super(collection, new CounterFactory());
+        }
+
+    }
+
+}
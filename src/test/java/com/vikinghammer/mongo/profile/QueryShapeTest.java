@@ -0,0 +1,86 @@
+package com.vikinghammer.mongo.profile;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * @author Sean Schulte
+ */
+public class QueryShapeTest {
+
+    @Test
+    public void stripsValues() {
+        DBObject query = new BasicDBObject("name", "sean");
+        query.put("age", new BasicDBObject("$gt", 30));
+        assertEquals("{age: {$gt}, name: $eq}", QueryShape.of(query).getShape());
+        assertEquals(Arrays.asList("age", "name"), QueryShape.of(query).getFields());
+    }
+
+    @Test
+    public void emptyQueryNeedsNoIndex() {
+        assertTrue(QueryShape.of(new BasicDBObject()).isSupportedBy(null));
+        assertTrue(QueryShape.of(null).isSupportedBy(null));
+    }
+
+    @Test
+    public void topLevelFieldUsesLeadingIndexField() {
+        DBObject query = new BasicDBObject("a", 1);
+        query.put("b", 2);
+        assertTrue(QueryShape.of(query).isSupportedBy(_indices("b,c")));
+        assertFalse(QueryShape.of(query).isSupportedBy(_indices("c,a")));
+        assertTrue(QueryShape.of(new BasicDBObject("_id", 1)).isSupportedBy(null));
+    }
+
+    @Test
+    public void orNeedsEveryClauseIndexed() {
+        DBObject query = new BasicDBObject("$or", Arrays.asList(new BasicDBObject("a", 1), new BasicDBObject("b", 1)));
+        assertFalse(QueryShape.of(query).isSupportedBy(_indices("a")));
+        assertTrue(QueryShape.of(query).isSupportedBy(_indices("a", "b")));
+        assertEquals(Arrays.asList("a", "b"), QueryShape.of(query).getFields());
+    }
+
+    @Test
+    public void orIsSupportedByIndexedSibling() {
+        DBObject query = new BasicDBObject("$or", Arrays.asList(new BasicDBObject("a", 1), new BasicDBObject("b", 1)));
+        query.put("c", 1);
+        assertTrue(QueryShape.of(query).isSupportedBy(_indices("c")));
+    }
+
+    @Test
+    public void andClausesCountAsTopLevelFields() {
+        DBObject query = new BasicDBObject("$and", Arrays.asList(new BasicDBObject("a", 1), new BasicDBObject("b", 1)));
+        assertTrue(QueryShape.of(query).isSupportedBy(_indices("b")));
+
+        DBObject nested = new BasicDBObject("$and", Arrays.asList(
+            new BasicDBObject("$or", Arrays.asList(new BasicDBObject("a", 1), new BasicDBObject("b", 1)))
+        ));
+        assertFalse(QueryShape.of(nested).isSupportedBy(_indices("a")));
+        assertTrue(QueryShape.of(nested).isSupportedBy(_indices("a", "b")));
+    }
+
+    @Test
+    public void norNeverUsesAnIndex() {
+        DBObject query = new BasicDBObject("$nor", Arrays.asList(new BasicDBObject("a", 1)));
+        assertFalse(QueryShape.of(query).isSupportedBy(_indices("a")));
+    }
+
+    @Test
+    public void emptyOrClauseScans() {
+        DBObject query = new BasicDBObject("$or", Arrays.asList(new BasicDBObject("a", 1), new BasicDBObject()));
+        assertFalse(QueryShape.of(query).isSupportedBy(_indices("a")));
+    }
+
+    private static List<String> _indices(String... indices) {
+        return Arrays.asList(indices);
+    }
+
+}